@@ -51,6 +51,9 @@ import loci.formats.meta.MetadataRetrieve;
 import loci.formats.meta.MetadataStore;
 import loci.plugins.BF;
 import loci.plugins.util.ImageProcessorReader;
+import loci.plugins.util.LociPrefs;
+import loci.plugins.util.MinMaxAccumulator;
+import loci.plugins.util.StatisticsCache;
 import loci.plugins.util.VirtualImagePlus;
 
 import ome.units.quantity.Length;
@@ -220,11 +223,6 @@ public class Colorizer {
   // -- Helper methods --
 
   private void applyDisplayRanges(ImagePlus imp, int series) {
-    if (imp instanceof VirtualImagePlus) {
-      // virtual stacks handle their own display ranges
-      return;
-    }
-
     final ImporterOptions options = process.getOptions();
     final ImageProcessorReader reader = process.getReader();
 
@@ -232,36 +230,28 @@ public class Colorizer {
     final boolean autoscale = options.isAutoscale() ||
       FormatTools.isFloatingPoint(pixelType); // always autoscale float data
 
+    // NB: Virtual stacks handle their own display ranges, unless the
+    // channel statistics are known without reading every plane.
+    final boolean virtual = imp instanceof VirtualImagePlus;
+    final double[][] ranges =
+      autoscale ? getChannelRanges(series, !virtual) : null;
+    if (virtual && ranges == null) return;
+
     final int cSize = imp.getNChannels();
     final double[] cMin = new double[cSize];
     final double[] cMax = new double[cSize];
     Arrays.fill(cMin, Double.NaN);
     Arrays.fill(cMax, Double.NaN);
 
-    if (autoscale) {
+    if (ranges != null) {
       // extract display ranges for autoscaling
-      final MinMaxCalculator minMaxCalc = process.getMinMaxCalculator();
       final int cBegin = process.getCBegin(series);
       final int cStep = process.getCStep(series);
       for (int c=0; c<cSize; c++) {
         final int cIndex = cBegin + c * cStep;
-        Double cMinVal = null, cMaxVal = null;
-        try {
-          cMinVal = minMaxCalc.getChannelGlobalMinimum(cIndex);
-          cMaxVal = minMaxCalc.getChannelGlobalMaximum(cIndex);
-
-          if (cMinVal == null) {
-            cMinVal = minMaxCalc.getChannelKnownMinimum(cIndex);
-          }
-
-          if (cMaxVal == null) {
-            cMaxVal = minMaxCalc.getChannelKnownMaximum(cIndex);
-          }
-        }
-        catch (FormatException exc) { }
-        catch (IOException exc) { }
-        if (cMinVal != null) cMin[c] = cMinVal;
-        if (cMaxVal != null) cMax[c] = cMaxVal;
+        if (cIndex >= ranges[0].length) continue;
+        cMin[c] = ranges[0][cIndex];
+        cMax[c] = ranges[1][cIndex];
       }
     }
 
@@ -296,7 +286,20 @@ public class Colorizer {
     }
 
     // apply display ranges
-    if (imp instanceof CompositeImage) {
+    if (virtual) {
+      double globalMin = Double.POSITIVE_INFINITY;
+      double globalMax = Double.NEGATIVE_INFINITY;
+      for (int c=0; c<cSize; c++) {
+        if (cMin[c] < globalMin) globalMin = cMin[c];
+        if (cMax[c] > globalMax) globalMax = cMax[c];
+      }
+      if (globalMin <= globalMax) {
+        // NB: Uncalibrate values before assigning to display range min/max.
+        ((VirtualImagePlus) imp).setFixedDisplayRange(
+          globalMin - zeroOffset, globalMax - zeroOffset);
+      }
+    }
+    else if (imp instanceof CompositeImage) {
       // apply channel display ranges
       final CompositeImage compImage = (CompositeImage) imp;
       for (int c=0; c<cSize; c++) {
@@ -334,6 +337,86 @@ public class Colorizer {
     }
   }
 
+  /**
+   * Gets the minimum and maximum of each channel of the given series: the
+   * persisted values if available, else those of the planes read during
+   * import, else the exact values if every plane has been read, else an
+   * estimate from a sample of the planes if so configured.
+   *
+   * @param partial Whether to otherwise fall back to the values of the planes
+   *   read so far.
+   * @return an array of the channel minima followed by the channel maxima,
+   *   with NaN for unknown values; or null if none are known
+   */
+  private double[][] getChannelRanges(int series, boolean partial) {
+    final ImageProcessorReader reader = process.getReader();
+    final String id = process.getOptions().getId();
+    reader.setSeries(series);
+    final int sizeC = reader.getSizeC();
+    double[][] ranges = StatisticsCache.load(id, series, sizeC);
+    if (ranges != null) return ranges;
+
+    // values computed while the planes were read
+    final MinMaxAccumulator stats = process.getChannelStatistics(series);
+    if (stats != null && stats.getSizeC() == sizeC) {
+      ranges = new double[2][sizeC];
+      for (int c=0; c<sizeC; c++) {
+        ranges[0][c] = stats.getMinimum(c);
+        ranges[1][c] = stats.getMaximum(c);
+      }
+      if (stats.isComplete()) {
+        StatisticsCache.save(id, series, ranges[0], ranges[1]);
+      }
+      return ranges;
+    }
+
+    final MinMaxCalculator minMaxCalc = process.getMinMaxCalculator();
+    ranges = new double[2][sizeC];
+    Arrays.fill(ranges[0], Double.NaN);
+    Arrays.fill(ranges[1], Double.NaN);
+    boolean exact = minMaxCalc != null;
+    try {
+      for (int c=0; c<sizeC && exact; c++) {
+        final Double cMinVal = minMaxCalc.getChannelGlobalMinimum(c);
+        final Double cMaxVal = minMaxCalc.getChannelGlobalMaximum(c);
+        exact = cMinVal != null && cMaxVal != null;
+        if (exact) {
+          ranges[0][c] = cMinVal;
+          ranges[1][c] = cMaxVal;
+        }
+      }
+      if (exact) {
+        StatisticsCache.save(id, series, ranges[0], ranges[1]);
+        return ranges;
+      }
+
+      final int planeStep = LociPrefs.getStatisticsSampling();
+      if (planeStep > 0) {
+        return StatisticsCache.sample(reader, planeStep,
+          LociPrefs.getStatisticsSamplingXY());
+      }
+
+      if (!partial || minMaxCalc == null) return null;
+      for (int c=0; c<sizeC; c++) {
+        Double cMinVal = minMaxCalc.getChannelGlobalMinimum(c);
+        Double cMaxVal = minMaxCalc.getChannelGlobalMaximum(c);
+
+        if (cMinVal == null) {
+          cMinVal = minMaxCalc.getChannelKnownMinimum(c);
+        }
+
+        if (cMaxVal == null) {
+          cMaxVal = minMaxCalc.getChannelKnownMaximum(c);
+        }
+        if (cMinVal != null) ranges[0][c] = cMinVal;
+        if (cMaxVal != null) ranges[1][c] = cMaxVal;
+      }
+    }
+    catch (FormatException exc) { }
+    catch (IOException exc) { }
+    return ranges;
+  }
+
   private LUT[] makeLUTs(ColorModel[] cm, boolean colorize) {
     // lookup tables can come from one of three places (in order of precedence):
     //   1) Color attribute defined in the MetadataStore
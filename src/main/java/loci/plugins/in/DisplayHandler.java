@@ -86,10 +86,11 @@ public class DisplayHandler implements StatusListener {
 
     String name = process.getIdName();
     ImporterMetadata meta = process.getOriginalMetadata();
-    String metaString = meta.getMetadataString("\t");
     SearchableWindow metaWindow = new SearchableWindow(
-      "Original Metadata - " + name, "Key\tValue", metaString, 400, 400);
+      "Original Metadata - " + name, "Key\tValue", "", 400, 400);
     metaWindow.setVisible(true);
+    // NB: Show the metadata as it is rendered, rather than all at once.
+    metaWindow.appendLines(meta.getLines("\t"));
     return metaWindow;
   }
 
@@ -37,10 +37,15 @@ import java.awt.image.ColorModel;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import loci.common.DateTools;
 import loci.common.Location;
 import loci.common.Region;
 import loci.common.StatusEvent;
@@ -50,21 +55,16 @@ import loci.formats.FilePattern;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
-import loci.formats.Modulo;
-import loci.formats.meta.DummyMetadata;
-import loci.formats.meta.IMetadata;
-import loci.formats.meta.MetadataRetrieve;
-import loci.formats.meta.MetadataStore;
 import loci.plugins.Slicer;
 import loci.plugins.util.BFVirtualStack;
 import loci.plugins.util.ImageProcessorReader;
 import loci.plugins.util.LociPrefs;
 import loci.plugins.util.LuraWave;
+import loci.plugins.util.MinMaxAccumulator;
+import loci.plugins.util.ReaderPool;
+import loci.plugins.util.SliceLabelTemplate;
 import loci.plugins.util.VirtualImagePlus;
-import ome.units.UNITS;
-import ome.units.quantity.Time;
 import ome.xml.model.enums.DimensionOrder;
-import ome.xml.model.primitives.Timestamp;
 
 /**
  * A high-level reader for {@link ij.ImagePlus} objects.
@@ -88,6 +88,9 @@ public class ImagePlusReader implements StatusReporter {
 
   protected List<StatusListener> listeners = new Vector<StatusListener>();
 
+  /** Reusable buffers for raw plane bytes, one per reading thread. */
+  private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
   // -- Constructors --
 
   /**
@@ -187,32 +190,44 @@ public class ImagePlusReader implements StatusReporter {
 
     // construct image stack from list of image processors
     for (int i=0; i<procs.size(); i++) {
-      final ImageProcessor ip = procs.get(i);
       final String label = labels == null ? null : labels.get(i);
+      addSlice(stack, procs.get(i), label, luts);
+    }
 
-      // HACK: ImageProcessorReader always assigns an ij.process.LUT object
-      // as the color model. If we don't get one, we know ImageJ created a
-      // default color model instead, which we can discard.
-      if (luts != null) {
-        final ColorModel cm = ip.getColorModel();
-        if (cm instanceof LUT) {
-          // plane has custom LUT attached; save it to the list
-          final LUT lut = (LUT) cm;
-          luts.add(lut);
-          // discard custom LUT from ImageProcessor
-          ip.setColorModel(ip.getDefaultColorModel());
-        }
-        else {
-          // no LUT attached; save a placeholder
-          luts.add(null);
-        }
-      }
+    return stack;
+  }
 
-      // add plane to image stack
-      stack.addSlice(label, ip);
+  /**
+   * Adds the given image processor to an image stack.
+   *
+   * @param stack The image stack to which the plane is added.
+   * @param ip The image processor to add.
+   * @param label Optional label for the plane.
+   * @param luts Optional list for storing plane-specific LUTs, for later use.
+   */
+  public static void addSlice(ImageStack stack, ImageProcessor ip,
+    String label, List<LUT> luts)
+  {
+    // HACK: ImageProcessorReader always assigns an ij.process.LUT object
+    // as the color model. If we don't get one, we know ImageJ created a
+    // default color model instead, which we can discard.
+    if (luts != null) {
+      final ColorModel cm = ip.getColorModel();
+      if (cm instanceof LUT) {
+        // plane has custom LUT attached; save it to the list
+        final LUT lut = (LUT) cm;
+        luts.add(lut);
+        // discard custom LUT from ImageProcessor
+        ip.setColorModel(ip.getDefaultColorModel());
+      }
+      else {
+        // no LUT attached; save a placeholder
+        luts.add(null);
+      }
     }
 
-    return stack;
+    // add plane to image stack
+    stack.addSlice(label, ip);
   }
 
   // -- Helper methods - image reading --
@@ -238,10 +253,15 @@ public class ImagePlusReader implements StatusReporter {
     startTiming();
 
     // read in each image series
-    for (int s=0; s<reader.getSeriesCount(); s++) {
-      if (!options.isSeriesOn(s)) continue;
-      final ImagePlus imp = readImage(s, thumbnail);
-      imps.add(imp);
+    try {
+      for (int s=0; s<reader.getSeriesCount(); s++) {
+        if (!options.isSeriesOn(s)) continue;
+        final ImagePlus imp = readImage(s, thumbnail);
+        imps.add(imp);
+      }
+    }
+    finally {
+      if (!options.isVirtual()) process.closeReaderPool();
     }
 
     // concatenate compatible images
@@ -305,8 +325,11 @@ public class ImagePlusReader implements StatusReporter {
     // place metadata key/value pairs in ImageJ's info field
     // if concatenating images only store metadata on first series
     if (!options.isConcatenate() || s == 0) {
-      final String metadata = process.getOriginalMetadata().toString();
-      imp.setProperty("Info", metadata);
+      // NB: Virtual images render the metadata only once it is viewed;
+      // otherwise, it is rendered once and shared by all series.
+      final ImporterMetadata metadata = process.getOriginalMetadata();
+      if (imp instanceof VirtualImagePlus) imp.setProperty("Info", metadata);
+      else imp.setProperty("Info", metadata.toString());
     }
     imp.setProperty(PROP_SERIES, s);
 
@@ -329,18 +352,22 @@ public class ImagePlusReader implements StatusReporter {
     final ImporterOptions options = process.getOptions();
     final ImageProcessorReader reader = process.getReader();
     reader.setSeries(s);
-    final int zCount = process.getZCount(s);
     final int cCount = process.getCCount(s);
-    final int tCount = process.getTCount(s);
-    final IMetadata meta = process.getOMEMetadata();
-    final int imageCount = reader.getImageCount();
 
     // CTR FIXME: Make virtual stack work with different color modes?
     final BFVirtualStack virtualStack = new BFVirtualStack(options.getId(),
       reader, false, false, false);
-    for (int i=0; i<imageCount; i++) {
-      String label = constructSliceLabel(i, reader, meta, s, zCount, cCount, tCount);
-      virtualStack.addSlice(label);
+    // NB: Slice labels are generated as each slice is shown.
+    virtualStack.setSliceLabelTemplate(
+      new SliceLabelTemplate(LociPrefs.getSliceLabelPattern(), reader, s));
+
+    // read slices concurrently and neighboring planes in the background,
+    // if so configured
+    final boolean prefetch = LociPrefs.getPrefetchDepthC() > 0 ||
+      LociPrefs.getPrefetchDepthZ() > 0 || LociPrefs.getPrefetchDepthT() > 0;
+    final boolean concurrent = LociPrefs.getImportThreads() > 1;
+    if ((prefetch || concurrent) && (options.isLocal() || options.isHTTP())) {
+      virtualStack.setReaderPool(process.getReaderPool());
     }
 
     if (luts != null) {
@@ -362,42 +389,338 @@ public class ImagePlusReader implements StatusReporter {
   {
     final ImageProcessorReader reader = process.getReader();
     reader.setSeries(s);
-    final int zCount = process.getZCount(s);
-    final int cCount = process.getCCount(s);
-    final int tCount = process.getTCount(s);
-    final IMetadata meta = process.getOMEMetadata();
+    final SliceLabelTemplate template =
+      new SliceLabelTemplate(LociPrefs.getSliceLabelPattern(), reader, s);
 
-    // get list of planes to load
-    final boolean[] load = getPlanesToLoad(s);
-    int current = 0, total = 0;
-    for (int j=0; j<load.length; j++) if (load[j]) total++;
-
-    final List<ImageProcessor> procs = new ArrayList<ImageProcessor>();
-    final List<String> labels = new ArrayList<String>();
+    // NB: Planes are visited as the iterator steps through the planar ranges,
+    // and each is added to the stack as soon as it has been read.
+    final PlaneIterator planes = new PlaneIterator(process, s);
+    final int total = planes.getCount();
 
     // read applicable image planes
     final Region region = process.getCropRegion(s);
-    for (int i=0; i<load.length; i++) {
-      if (!load[i]) continue;
+    final ImageStack stack = thumbnail ?
+      new ImageStack(reader.getThumbSizeX(), reader.getThumbSizeY()) :
+      new ImageStack(region.width, region.height);
+    final int threads = getThreadCount(process, total, thumbnail);
+
+    // NB: When autoscaling, channel minima and maxima are computed from the
+    // planes as they are read, rather than by a second pass.
+    final MinMaxAccumulator stats =
+      thumbnail || process.getMinMaxCalculator() == null ? null :
+      new MinMaxAccumulator(reader.getSizeC(), reader.getPixelType());
+
+    // NB: When there are too few planes to keep every thread busy, each
+    // plane is instead split into tiles which are read concurrently.
+    final List<Region> tiles = thumbnail || !LociPrefs.isTiledImport() ||
+      getThreadCount(process, Integer.MAX_VALUE, false) <= total ? null :
+      getTiles(reader, region);
+
+    if (tiles != null && tiles.size() > 1) {
+      readTiledPlanes(process, s, planes, region, tiles, template, stats,
+        stack, luts);
+    }
+    else if (threads > 1) {
+      readPlanes(process, s, planes, region, threads, template, stats, stack,
+        luts);
+    }
+    else {
+      for (int current=0; planes.hasNext(); current++) {
+        final int i = planes.next();
 
-      // limit message update rate
-      updateTiming(s, current, current++, total);
+        // limit message update rate
+        updateTiming(s, current, current, total);
 
-      // get image processor for ith plane
-      final ImageProcessor[] p = readProcessors(process, i, region, thumbnail);
-      if (p == null || p.length == 0) {
-        throw new FormatException("Cannot read plane #" + i);
+        // get image processor for ith plane
+        final ImageProcessor[] p =
+          readProcessors(process, i, region, thumbnail);
+        if (p == null || p.length == 0) {
+          throw new FormatException("Cannot read plane #" + i);
+        }
+        if (stats != null) addStatistics(stats, reader.getZCTCoords(i)[1], p);
+        addPlane(stack, p, template.getLabel(i), luts);
       }
-      // generate a label for ith plane
-      String label = constructSliceLabel(i, reader, meta, s, zCount, cCount, tCount);
+    }
 
-      for (ImageProcessor ip : p) {
-        procs.add(ip);
-        labels.add(label);
+    if (stats != null) {
+      stats.setComplete(total == reader.getImageCount() && region.x == 0 &&
+        region.y == 0 && region.width == reader.getSizeX() &&
+        region.height == reader.getSizeY());
+      process.setChannelStatistics(s, stats);
+    }
+
+    return stack.getSize() == 0 ? null : stack;
+  }
+
+  /**
+   * Reads the given planes using a pool of worker threads, each with its own
+   * reader stack. Planes are still added to the stack in the given order.
+   */
+  private void readPlanes(final ImportProcess process, final int s,
+    final PlaneIterator planes, final Region region, final int threads,
+    final SliceLabelTemplate template, final MinMaxAccumulator stats,
+    final ImageStack stack, final List<LUT> luts)
+    throws FormatException, IOException
+  {
+    final ImageProcessorReader reader = process.getReader();
+    final int total = planes.getCount();
+
+    // NB: Read the first plane on this thread, so that the user can still
+    // be prompted for a LuraWave license code, if necessary.
+    updateTiming(s, 0, 0, total);
+    final int no0 = planes.next();
+    final ImageProcessor[] first = readProcessors(process, no0, region, false);
+    if (first == null || first.length == 0) {
+      throw new FormatException("Cannot read plane #" + no0);
+    }
+    if (stats != null) {
+      addStatistics(stats, reader.getZCTCoords(no0)[1], first);
+    }
+    addPlane(stack, first, template.getLabel(no0), luts);
+
+    // each worker thread accumulates channel statistics of its own
+    final List<MinMaxAccumulator> accumulators =
+      new ArrayList<MinMaxAccumulator>();
+    final ThreadLocal<MinMaxAccumulator> threadStats =
+      new ThreadLocal<MinMaxAccumulator>() {
+        @Override
+        protected MinMaxAccumulator initialValue() {
+          final MinMaxAccumulator a =
+            new MinMaxAccumulator(stats.getSizeC(), reader.getPixelType());
+          synchronized (accumulators) {
+            accumulators.add(a);
+          }
+          return a;
+        }
+      };
+
+    // NB: Only a few planes per thread are read ahead of the stack, so that
+    // planes read out of order are not all held at once.
+    final int readAhead = 2 * threads;
+    final LinkedList<Integer> indices = new LinkedList<Integer>();
+    final LinkedList<Future<ImageProcessor[]>> results =
+      new LinkedList<Future<ImageProcessor[]>>();
+
+    final ReaderPool pool = process.getReaderPool();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int current=1; current<total; current++) {
+        while (planes.hasNext() && results.size() < readAhead) {
+          final int no = planes.next();
+          indices.add(no);
+          results.add(executor.submit(new Callable<ImageProcessor[]>() {
+            @Override
+            public ImageProcessor[] call()
+              throws FormatException, IOException
+            {
+              final ImageProcessorReader r = pool.acquire();
+              if (r == null) {
+                throw new FormatException("Cannot read plane #" + no);
+              }
+              try {
+                r.setSeries(s);
+                final ImageProcessor[] p = r.openProcessors(no,
+                  getBuffer(r, region), new Object[r.getRGBChannelCount()],
+                  region.x, region.y, region.width, region.height);
+                if (stats != null) {
+                  addStatistics(threadStats.get(), r.getZCTCoords(no)[1], p);
+                }
+                return p;
+              }
+              finally {
+                pool.release(r);
+              }
+            }
+          }));
+        }
+
+        final int i = indices.removeFirst();
+
+        // limit message update rate
+        updateTiming(s, current, current, total);
+
+        final ImageProcessor[] p = getResult(results.removeFirst());
+        if (p == null || p.length == 0) {
+          throw new FormatException("Cannot read plane #" + i);
+        }
+        addPlane(stack, p, template.getLabel(i), luts);
       }
     }
+    finally {
+      executor.shutdownNow();
+    }
 
-    return createStack(procs, labels, luts);
+    // NB: Every task has completed, so its statistics are visible here.
+    if (stats != null) {
+      synchronized (accumulators) {
+        for (MinMaxAccumulator a : accumulators) stats.add(a);
+      }
+    }
+  }
+
+  /**
+   * Reads the given planes one at a time, reading the tiles of each plane
+   * using a pool of worker threads, each with its own reader stack, and
+   * assembling them into one image processor per channel.
+   */
+  private void readTiledPlanes(final ImportProcess process, final int s,
+    final PlaneIterator planes, final Region region, final List<Region> tiles,
+    final SliceLabelTemplate template, final MinMaxAccumulator stats,
+    final ImageStack stack, final List<LUT> luts)
+    throws FormatException, IOException
+  {
+    final ImageProcessorReader reader = process.getReader();
+    final int total = planes.getCount();
+    final int threads = Math.min(LociPrefs.getImportThreads(), tiles.size());
+
+    final ReaderPool pool = process.getReaderPool();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int current=0; planes.hasNext(); current++) {
+        final int no = planes.next();
+
+        // limit message update rate
+        updateTiming(s, current, current, total);
+
+        // NB: Read the first tile on this thread, so that the user can still
+        // be prompted for a LuraWave license code, if necessary.
+        final ImageProcessor[][] tileProcs = new ImageProcessor[tiles.size()][];
+        if (current == 0) {
+          tileProcs[0] = readProcessors(process, no, tiles.get(0), false);
+        }
+        final List<Future<ImageProcessor[]>> results =
+          new ArrayList<Future<ImageProcessor[]>>();
+        for (int t=current == 0 ? 1 : 0; t<tiles.size(); t++) {
+          final Region tile = tiles.get(t);
+          results.add(executor.submit(new Callable<ImageProcessor[]>() {
+            @Override
+            public ImageProcessor[] call()
+              throws FormatException, IOException
+            {
+              final ImageProcessorReader r = pool.acquire();
+              if (r == null) {
+                throw new FormatException("Cannot read plane #" + no);
+              }
+              try {
+                r.setSeries(s);
+                return r.openProcessors(no,
+                  tile.x, tile.y, tile.width, tile.height);
+              }
+              finally {
+                pool.release(r);
+              }
+            }
+          }));
+        }
+        for (int t=tiles.size()-results.size(), i=0; t<tiles.size(); t++) {
+          tileProcs[t] = getResult(results.get(i++));
+        }
+
+        // assemble the tiles into one processor per channel
+        ImageProcessor[] p = null;
+        for (int t=0; t<tiles.size(); t++) {
+          final ImageProcessor[] tp = tileProcs[t];
+          if (tp == null || tp.length == 0) {
+            throw new FormatException("Cannot read plane #" + no);
+          }
+          if (p == null) {
+            p = new ImageProcessor[tp.length];
+            for (int c=0; c<p.length; c++) {
+              p[c] = tp[c].createProcessor(region.width, region.height);
+            }
+          }
+          final Region tile = tiles.get(t);
+          for (int c=0; c<p.length; c++) {
+            p[c].insert(tp[c], tile.x - region.x, tile.y - region.y);
+          }
+        }
+        if (stats != null) addStatistics(stats, reader.getZCTCoords(no)[1], p);
+        addPlane(stack, p, template.getLabel(no), luts);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Splits the given region along the boundaries of the reader's optimal
+   * tiles, so that each part can be read from as few tiles as possible.
+   */
+  private static List<Region> getTiles(IFormatReader reader, Region region) {
+    final int tw = Math.max(1, reader.getOptimalTileWidth());
+    final int th = Math.max(1, reader.getOptimalTileHeight());
+    final List<Region> tiles = new ArrayList<Region>();
+    final int xEnd = region.x + region.width;
+    final int yEnd = region.y + region.height;
+    for (int y=region.y / th * th; y<yEnd; y+=th) {
+      for (int x=region.x / tw * tw; x<xEnd; x+=tw) {
+        tiles.add(region.intersection(new Region(x, y, tw, th)));
+      }
+    }
+    return tiles;
+  }
+
+  /** Adds the samples of the given plane to the given channel statistics. */
+  private void addStatistics(MinMaxAccumulator stats, int c,
+    ImageProcessor[] p)
+  {
+    for (ImageProcessor ip : p) stats.add(c, ip);
+  }
+
+  /** Adds the given plane, with one processor per channel, to the stack. */
+  private void addPlane(ImageStack stack, ImageProcessor[] p, String label,
+    List<LUT> luts)
+  {
+    for (ImageProcessor ip : p) addSlice(stack, ip, label, luts);
+  }
+
+  /**
+   * Gets the number of threads with which to read the given number of planes.
+   * Planes are read serially unless more than one import thread is configured
+   * and the reader stack can be duplicated.
+   */
+  private int getThreadCount(ImportProcess process, int total,
+    boolean thumbnail)
+  {
+    if (thumbnail || total < 2) return 1;
+    final ImporterOptions options = process.getOptions();
+    if (!options.isLocal() && !options.isHTTP()) return 1;
+    return Math.min(LociPrefs.getImportThreads(), total - 1);
+  }
+
+  /**
+   * Gets a buffer large enough to hold the raw bytes of the given region,
+   * reusing the current thread's previous buffer when possible.
+   */
+  private byte[] getBuffer(ImageProcessorReader reader, Region r) {
+    final int size = FormatTools.getPlaneSize(reader, r.width, r.height);
+    byte[] buf = buffers.get();
+    if (buf == null || buf.length < size) {
+      buf = new byte[size];
+      buffers.set(buf);
+    }
+    return buf;
+  }
+
+  /** Waits for the given plane to be read, unwrapping any failure. */
+  private static ImageProcessor[] getResult(Future<ImageProcessor[]> result)
+    throws FormatException, IOException
+  {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException exc) {
+      throw new FormatException(exc);
+    }
+    catch (ExecutionException exc) {
+      final Throwable cause = exc.getCause();
+      if (cause instanceof FormatException) throw (FormatException) cause;
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new FormatException(cause);
+    }
   }
 
   /**
@@ -419,7 +742,9 @@ public class ImagePlusReader implements StatusReporter {
         if (thumbnail) {
           return reader.openThumbProcessors(no);
         }
-        return reader.openProcessors(no, r.x, r.y, r.width, r.height);
+        return reader.openProcessors(no, getBuffer(reader, r),
+          new Object[reader.getRGBChannelCount()],
+          r.x, r.y, r.width, r.height);
       }
       catch (FormatException exc) {
         if (options.isQuiet() || options.isWindowless()) throw exc;
@@ -523,29 +848,6 @@ public class ImagePlusReader implements StatusReporter {
     return fi;
   }
 
-  private boolean[] getPlanesToLoad(int s) {
-    final ImageProcessorReader reader = process.getReader();
-    final boolean[] load = new boolean[reader.getImageCount()];
-    final int cBegin = process.getCBegin(s);
-    final int cEnd = process.getCEnd(s);
-    final int cStep = process.getCStep(s);
-    final int zBegin = process.getZBegin(s);
-    final int zEnd = process.getZEnd(s);
-    final int zStep = process.getZStep(s);
-    final int tBegin = process.getTBegin(s);
-    final int tEnd = process.getTEnd(s);
-    final int tStep = process.getTStep(s);
-    for (int c=cBegin; c<=cEnd; c+=cStep) {
-      for (int z=zBegin; z<=zEnd; z+=zStep) {
-        for (int t=tBegin; t<=tEnd; t+=tStep) {
-          int index = reader.getIndex(z, c, t);
-          load[index] = true;
-        }
-      }
-    }
-    return load;
-  }
-
   private String constructImageTitle(IFormatReader r,
     String file, String seriesName, boolean groupFiles)
   {
@@ -575,103 +877,6 @@ public class ImagePlusReader implements StatusReporter {
     return title;
   }
 
-  private String constructSliceLabel(int ndx, IFormatReader r,
-    IMetadata meta, int series, int zCount, int cCount, int tCount)
-  {
-    r.setSeries(series);
-    String sliceLabelPattern = LociPrefs.getSliceLabelPattern();
-
-    String order = r.getDimensionOrder();
-    int sizeC = r.getEffectiveSizeC();
-    int sizeT = r.getSizeT();
-    int sizeZ = r.getSizeZ();
-    int seriesCount = r.getImageCount();
-    int indexBase = LociPrefs.getSliceLabelBaseIndex();
-    int[] coordinates = FormatTools.getZCTCoords(order, sizeZ, sizeC, sizeT, sizeZ*sizeC*sizeT, ndx);
-
-    MetadataStore store = r.getMetadataStore();
-    MetadataRetrieve retrieve = store instanceof MetadataRetrieve ? (MetadataRetrieve) store : new DummyMetadata();
-    String filename = sliceLabelPattern.replaceAll(FormatTools.SERIES_NUM, String.format("%d", series));
-
-    String imageName = retrieve.getImageName(series);
-    if (imageName == null) imageName = "Series" + series;
-    filename = sliceLabelPattern;
-    
-    filename = filename.replaceAll(FormatTools.SERIES_NUM, String.format("%d", series));
-    filename = filename.replaceAll(FormatTools.SERIES_NAME, imageName);
-    if (sizeC > 1) {
-      int[] subC;
-      String[] subCTypes;
-      Modulo moduloC = r.getModuloC();
-      if (moduloC.length() > 1) {
-        subC = new int[] {r.getSizeC() / moduloC.length(), moduloC.length()};
-        subCTypes = new String[] {moduloC.parentType, moduloC.type};
-      } else {
-        subC = new int[] {r.getSizeC()};
-        subCTypes = new String[] {FormatTools.CHANNEL};
-      }
-      int[] subCPos = FormatTools.rasterToPosition(subC, coordinates[1]);
-      StringBuffer channelString = new StringBuffer();
-      for (int i=0; i<subC.length; i++) {
-        boolean ch = subCTypes[i] == null || FormatTools.CHANNEL.equals(subCTypes[i]);
-        channelString.append(ch ? "c" : subCTypes[i]);
-        channelString.append(":");
-        channelString.append(subCPos[i] + 1);
-        channelString.append("/");
-        channelString.append(subC[i]);
-        if (i < subC.length - 1) channelString.append(", ");
-      }
-      filename = filename.replaceAll(FormatTools.CHANNEL_NUM, channelString.toString() + " ");
-
-      int channelCount = retrieve.getChannelCount(series);
-      if (coordinates[1] < channelCount) {
-        String channelName = retrieve.getChannelName(series, coordinates[1]);
-        if (channelName == null) channelName = String.valueOf(coordinates[1]);
-        filename = filename.replaceAll(FormatTools.CHANNEL_NAME, channelName);
-      }
-      else {
-        filename = filename.replaceAll(FormatTools.CHANNEL_NAME, String.valueOf(coordinates[1]));
-      }
-    }
-    else {
-      filename = filename.replaceAll(FormatTools.CHANNEL_NUM, "");
-      filename = filename.replaceAll(FormatTools.CHANNEL_NAME, "");
-    }
-    if (sizeZ > 1) {
-      filename = filename.replaceAll(FormatTools.Z_NUM, "z:" + String.format("%d", coordinates[0] + 1) + "/" + String.format("%d", sizeZ) + " ");
-    }
-    else {
-      filename = filename.replaceAll(FormatTools.Z_NUM, "");
-    }
-    if (sizeT > 1) {
-      filename = filename.replaceAll(FormatTools.T_NUM, "t:" + String.format("%d", coordinates[2] + 1) + "/" + String.format("%d", sizeT) + " ");
-    }
-    else {
-      filename = filename.replaceAll(FormatTools.T_NUM, "");
-    }
-
-    Timestamp timestamp = retrieve.getImageAcquisitionDate(series);
-    long stamp = 0;
-    String date = null;
-    if (timestamp != null) {
-      date = timestamp.getValue();
-      if (retrieve.getPlaneCount(series) > ndx) {
-        Time deltaT = retrieve.getPlaneDeltaT(series, ndx);
-        if (deltaT != null) {
-          stamp = (long) (deltaT.value(UNITS.SECOND).doubleValue() * 1000);
-        }
-      }
-      stamp += DateTools.getTime(date, DateTools.ISO8601_FORMAT);
-    }
-    else {
-      stamp = System.currentTimeMillis();
-    }
-    date = DateTools.convertDate(stamp, (int) DateTools.UNIX_EPOCH);
-
-    filename = filename.replaceAll(FormatTools.TIMESTAMP, date);
-    return filename;
-  }
-
   private static String[] substringsBetween(String str, String open, String close) {
     if (str == null || open == null || close == null || open.length() == 0 || close.length() == 0) {
       return null;
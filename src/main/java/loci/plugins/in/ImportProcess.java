@@ -29,9 +29,13 @@ package loci.plugins.in;
 
 import ij.IJ;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import loci.common.DebugTools;
@@ -54,15 +58,23 @@ import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
+import loci.formats.Memoizer;
 import loci.formats.MinMaxCalculator;
+import loci.formats.ReaderWrapper;
 import loci.formats.TileStitcher;
 import loci.formats.in.MetadataLevel;
+import loci.formats.in.MetadataOptions;
+import loci.formats.meta.DummyMetadata;
 import loci.formats.meta.IMetadata;
 import loci.formats.services.OMEXMLService;
 import loci.plugins.BF;
 import loci.plugins.util.ImageProcessorReader;
+import loci.plugins.util.InitializedReader;
 import loci.plugins.util.LociPrefs;
 import loci.plugins.util.LuraWave;
+import loci.plugins.util.MemoCache;
+import loci.plugins.util.MinMaxAccumulator;
+import loci.plugins.util.ReaderPool;
 import loci.plugins.util.VirtualReader;
 import loci.plugins.util.WindowTools;
 import ome.xml.model.enums.DimensionOrder;
@@ -114,6 +126,19 @@ public class ImportProcess implements StatusReporter {
   /** A descriptive label for each series. */
   private String[] seriesLabels;
 
+  /** Output dimension order applied to the reader stack. */
+  private String outputOrder;
+
+  /** Pool of additional reader stacks, for reading planes concurrently. */
+  private ReaderPool readerPool;
+
+  /** Temporary directory holding memo files for pooled reader stacks. */
+  private File memoDir;
+
+  /** Channel minima and maxima of the planes read, by series. */
+  private final Map<Integer, MinMaxAccumulator> channelStatistics =
+    new HashMap<Integer, MinMaxAccumulator>();
+
   // -- Constructors --
 
   public ImportProcess() throws IOException {
@@ -183,7 +208,12 @@ public class ImportProcess implements StatusReporter {
 
   public boolean isWindowless() {
     if (options.isWindowless()) return true; // globally windowless
-    return baseReader != null && LociPrefs.isWindowless(baseReader);
+    if (baseReader == null) return false;
+    // NB: Windowless mode is configured for the format reader itself,
+    // rather than for the memo cache which may wrap it.
+    IFormatReader r = baseReader;
+    while (r instanceof ReaderWrapper) r = ((ReaderWrapper) r).getReader();
+    return LociPrefs.isWindowless(r);
   }
 
   public void setSeriesList(String seriesList) {
@@ -417,33 +447,187 @@ public class ImportProcess implements StatusReporter {
   }
 
   /**
-   * Gets a projection of required memory in bytes.
+   * Gets a projection of the peak memory required to import the selected
+   * series, in bytes. Besides the image planes themselves, this accounts for
+   * the conversion of samples wider than 16 bits to 32-bit float processors,
+   * the raw plane buffers of each reading thread, and the display buffers of
+   * each resulting image window.
    * Valid only after {@link ImportStep#SERIES}.
    */
   public long getMemoryUsage() {
+    final boolean isVirtual = options.isVirtual();
+    final int threads = isVirtual ? 1 : LociPrefs.getImportThreads();
     final int seriesCount = getSeriesCount();
-    long total = 0;
+    long planes = 0, buffers = 0, windows = 0;
     for (int s=0; s<seriesCount; s++) {
       if (!options.isSeriesOn(s)) continue;
       reader.setSeries(s);
-      // determine size of one image plane
+      // determine size of one image plane, as read and as held by ImageJ
       final Region cropRegion = getCropRegion(s);
+      final long area = (long) cropRegion.width * cropRegion.height;
       final int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
-      final long planeSize = bpp * cropRegion.width * cropRegion.height;
+      final int ipBytes = Math.min(bpp, 4);
       // determine total number of image planes
       final int cCount = getCCount(s);
       final int zCount = getZCount(s);
       final int tCount = getTCount(s);
-      final long planeCount = cCount * zCount * tCount;
+      final long planeCount = (long) cCount * zCount * tCount;
       // determine active number of image planes
-      final boolean isVirtual = options.isVirtual();
-      final long activeChannels = options.isColorModeComposite() ? cCount : 1;
-      final long activePlanes = isVirtual ? activeChannels : planeCount;
-      // compute total memory footprint for this series
-      final long seriesSize = planeSize * activePlanes;
-      total += seriesSize;
+      final boolean composite = isComposite(cCount);
+      final long activePlanes = isVirtual ?
+        (composite ? cCount : 1) + getPrefetchCount() : planeCount;
+      planes += area * ipBytes * activePlanes;
+
+      // NB: Each reading thread keeps a raw buffer for the current plane,
+      // and its channel separator keeps the last unsplit RGB plane.
+      final int rgbCount = channelSeparator.getReader().getRGBChannelCount();
+      final long rawSize = area * bpp * (rgbCount > 1 ? rgbCount + 1 : 1);
+      buffers = Math.max(buffers, threads * rawSize);
+
+      // NB: Image windows keep 8-bit copies of wider planes for display;
+      // composite windows keep one per channel, plus an RGB rendering.
+      if (options.isViewNone()) continue;
+      final boolean splitC = options.isSplitChannels();
+      long windowCount = splitC ? cCount : 1;
+      if (options.isSplitFocalPlanes()) windowCount *= zCount;
+      if (options.isSplitTimepoints()) windowCount *= tCount;
+      final long windowSize = composite && !splitC ? area * (4 + cCount) :
+        ipBytes > 1 ? area : 0;
+      // NB: Concatenated series share a single window.
+      if (options.isConcatenate()) {
+        windows = Math.max(windows, windowCount * windowSize);
+      }
+      else windows += windowCount * windowSize;
+    }
+    return planes + buffers + windows;
+  }
+
+  // -- ImportProcess methods - post-DIM_ORDER --
+
+  /**
+   * Creates a new reader stack equivalent to {@link #getReader()}, but
+   * independent of it, so that image planes can be read on another thread.
+   * The new stack does not compute channel minima and maxima; see
+   * {@link #setChannelStatistics}.
+   * The caller is responsible for closing the returned reader.
+   * Valid only after {@link ImportStep#DIM_ORDER}.
+   *
+   * @return the new reader, or null if the data source cannot be reopened
+   */
+  public ImageProcessorReader createReader()
+    throws FormatException, IOException
+  {
+    assertStep(ImportStep.DIM_ORDER);
+    if (!options.isLocal() && !options.isHTTP()) return null;
+
+    IFormatReader r = LociPrefs.makeImageReader();
+    r.setMetadataStore(new DummyMetadata());
+    r.setMetadataFiltered(true);
+    r.setGroupFiles(baseReader.isGroupFiles());
+    MetadataOptions metadataOptions = r.getMetadataOptions();
+    metadataOptions.setMetadataLevel(
+      baseReader.getMetadataOptions().getMetadataLevel());
+    r.setMetadataOptions(metadataOptions);
+
+    // NB: The first copy saves a memo file of its initialized state;
+    // subsequent copies load it rather than parsing the file headers again.
+    // File stitching opens several files per reader, so is not memoized.
+    final File dir = options.isGroupFiles() ? null : getMemoDirectory();
+    if (dir != null) r = new Memoizer(r, 0, dir);
+
+    if (options.isGroupFiles()) {
+      FileStitcher stitcher = new FileStitcher(r);
+      stitcher.setUsingPatternIds(true);
+      stitcher.setCanChangePattern(false);
+      r = stitcher;
     }
-    return total;
+    r = new ChannelFiller(r);
+    r = new ChannelSeparator(r);
+    final DimensionSwapper swapper = new DimensionSwapper(r);
+    r = swapper;
+    if (tileStitcher != null) r = new TileStitcher(r);
+    final ImageProcessorReader copy = new ImageProcessorReader(r);
+    copy.setId(options.getId());
+
+    // apply the same dimension swapping as the primary reader stack
+    for (int s=0; s<copy.getSeriesCount(); s++) {
+      copy.setSeries(s);
+      String dimOrder = options.getInputOrder(s);
+      if (dimOrder != null) swapper.swapDimensions(dimOrder);
+      swapper.setOutputOrder(outputOrder);
+    }
+    copy.setSeries(0);
+    return copy;
+  }
+
+  /**
+   * Gets a pool of reader stacks equivalent to {@link #getReader()}, with
+   * up to {@link LociPrefs#getImportThreads()} members, each created via
+   * {@link #createReader()}. The pool stays open, and its reader stacks
+   * initialized, until {@link #closeReaderPool()} is called or, when
+   * importing to a virtual stack, the virtual reader is closed.
+   * Valid only after {@link ImportStep#DIM_ORDER}.
+   */
+  public synchronized ReaderPool getReaderPool() {
+    assertStep(ImportStep.DIM_ORDER);
+    if (readerPool == null) {
+      readerPool = new ReaderPool(new ReaderPool.ReaderFactory() {
+        @Override
+        public ImageProcessorReader createReader()
+          throws FormatException, IOException
+        {
+          return ImportProcess.this.createReader();
+        }
+      }, LociPrefs.getImportThreads());
+
+      // NB: Virtual stacks keep using the pool until their windows close.
+      if (options.isVirtual()) {
+        virtualReader.addResource(new Closeable() {
+          @Override
+          public void close() throws IOException {
+            closeReaderPool();
+          }
+        });
+      }
+    }
+    return readerPool;
+  }
+
+  /**
+   * Closes the pool of reader stacks, if any, and deletes the memo files
+   * used to initialize them.
+   */
+  public synchronized void closeReaderPool() throws IOException {
+    if (readerPool != null) {
+      readerPool.close();
+      readerPool = null;
+    }
+    if (memoDir != null) {
+      delete(memoDir);
+      memoDir = null;
+    }
+  }
+
+  /**
+   * Records the channel minima and maxima of the planes of the given series
+   * read during import, for use in autoscaling.
+   * Valid only after {@link ImportStep#DIM_ORDER}.
+   */
+  public synchronized void setChannelStatistics(int s,
+    MinMaxAccumulator stats)
+  {
+    assertStep(ImportStep.DIM_ORDER);
+    channelStatistics.put(s, stats);
+  }
+
+  /**
+   * Gets the channel minima and maxima of the planes of the given series
+   * read during import, or null if none were recorded.
+   * Valid only after {@link ImportStep#DIM_ORDER}.
+   */
+  public synchronized MinMaxAccumulator getChannelStatistics(int s) {
+    assertStep(ImportStep.DIM_ORDER);
+    return channelStatistics.get(s);
   }
 
   // -- ImportProcess methods - post-METADATA --
@@ -496,9 +680,15 @@ public class ImportProcess implements StatusReporter {
       baseReader.getMetadataOptions().setMetadataLevel(
           MetadataLevel.NO_OVERLAYS);
     }
-    baseReader.setId(options.isUsingPatternIds() ?
-      new FilePattern(options.getId()).getFiles()[0] : options.getId());
-    
+    final String id = options.isUsingPatternIds() ?
+      new FilePattern(options.getId()).getFiles()[0] : options.getId();
+
+    // restore the reader's state from the persistent cache, if enabled
+    final String config = "groupFiles=" + baseReader.isGroupFiles() +
+      ";metadataLevel=" + baseReader.getMetadataOptions().getMetadataLevel();
+    baseReader = MemoCache.wrap(baseReader, id, config);
+    baseReader.setId(id);
+
     boolean mustGroup = baseReader.fileGroupOption(options.getId()) == FormatTools.MUST_GROUP;
     options.setMustGroup(mustGroup);
   }
@@ -516,6 +706,10 @@ public class ImportProcess implements StatusReporter {
       fileStitcher.setUsingPatternIds(true);
       fileStitcher.setCanChangePattern(false);
     }
+
+    // NB: The reader is now fully parsed; neither the call below nor
+    // initializing the wrappers below must parse it yet again.
+    r = new InitializedReader(r);
     r.setId(options.getId());
 
     if (options.isGroupFiles()) {
@@ -556,6 +750,7 @@ public class ImportProcess implements StatusReporter {
   private void initializeDimOrder() {
     final int seriesCount = getSeriesCount();
     final String stackOrder = getStackOrder();
+    outputOrder = stackOrder;
 
     for (int s=0; s<seriesCount; s++) {
       reader.setSeries(s);
@@ -581,7 +776,9 @@ public class ImportProcess implements StatusReporter {
   private void initializeCrop() { }
 
   /** Performed following ImportStep.COLORS notification. */
-  private void initializeColors() { }
+  private void initializeColors() {
+    admitMemoryUsage();
+  }
 
   /** Performed following ImportStep.METADATA notification. */
   private void initializeMetadata() {
@@ -595,6 +792,58 @@ public class ImportProcess implements StatusReporter {
     metadata = new ImporterMetadata(getReader(), this, numEnabled > 1);
   }
 
+  // -- Helper methods - ImportStep.COLORS --
+
+  /**
+   * Switches to a virtual stack if the projected memory usage exceeds
+   * the fraction of the heap given by {@link LociPrefs#getAdmissionLimit()}.
+   * Since virtual stacks always show whole planes of every channel, focal
+   * plane and time point, an import which is cropped or limited to a range
+   * is only warned about, and left to the {@link MemoryDialog}.
+   */
+  private void admitMemoryUsage() {
+    final int limit = LociPrefs.getAdmissionLimit();
+    if (limit <= 0 || options.isVirtual() || options.isViewNone()) return;
+    final long maxMemory = Runtime.getRuntime().maxMemory();
+    final long needMem = getMemoryUsage();
+    if (needMem <= maxMemory / 100 * limit) return;
+    final String usage = "approximately " + needMem / 1048576 +
+      " MB, more than " + limit + "% of the " + maxMemory / 1048576 +
+      " MB available to ImageJ";
+    if (isSubset()) {
+      BF.warn(options.isQuiet(), getIdName() + ": the import would require " +
+        usage + ", but cannot be opened as a virtual stack, since it is " +
+        "cropped or limited to a range");
+      return;
+    }
+    options.setVirtual(true);
+    BF.warn(options.isQuiet(), getIdName() + ": opening as a virtual stack, " +
+      "since it would require " + usage);
+  }
+
+  /**
+   * Gets whether any series to import is cropped, or limited to a range of
+   * channels, focal planes or time points.
+   */
+  private boolean isSubset() {
+    for (int s=0; s<getSeriesCount(); s++) {
+      if (!options.isSeriesOn(s)) continue;
+      reader.setSeries(s);
+      final Region region = getCropRegion(s);
+      if (region.x != 0 || region.y != 0 ||
+        region.width != reader.getSizeX() || region.height != reader.getSizeY())
+      {
+        return true;
+      }
+      if (getCCount(s) != reader.getEffectiveSizeC() ||
+        getZCount(s) != reader.getSizeZ() || getTCount(s) != reader.getSizeT())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // -- Helper methods - ImportStep.READER --
 
   /** Initializes the idName and idLoc derived values. */
@@ -708,6 +957,34 @@ public class ImportProcess implements StatusReporter {
     throw new FormatException(LuraWave.TOO_MANY_TRIES);
   }
 
+  /**
+   * Gets the temporary directory in which pooled reader stacks store their
+   * memo files, creating it if needed.
+   *
+   * @return the directory, or null if it could not be created
+   */
+  private synchronized File getMemoDirectory() {
+    if (memoDir == null) {
+      try {
+        final File dir = File.createTempFile("bio-formats-memo", "");
+        if (dir.delete() && dir.mkdir()) memoDir = dir;
+      }
+      catch (IOException exc) {
+        BF.debug("Cannot create memo directory: " + exc.getMessage());
+      }
+    }
+    return memoDir;
+  }
+
+  /** Recursively deletes the given file or directory. */
+  private void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    if (!file.delete()) file.deleteOnExit();
+  }
+
   private void computeSeriesLabels(IFormatReader r) {
     final int seriesCount = r.getSeriesCount();
     seriesLabels = new String[seriesCount];
@@ -760,6 +1037,21 @@ public class ImportProcess implements StatusReporter {
 
   // -- Helper methods - miscellaneous --
 
+  /**
+   * Gets whether a series with the given number of channels
+   * will be displayed as a {@link ij.CompositeImage}.
+   */
+  private boolean isComposite(int cCount) {
+    if (options.isViewStandard()) return false;
+    return cCount > 1 && cCount <= 7;
+  }
+
+  /** Gets the number of planes which virtual stacks may read ahead. */
+  private int getPrefetchCount() {
+    return 2 * (LociPrefs.getPrefetchDepthC() +
+      LociPrefs.getPrefetchDepthZ() + LociPrefs.getPrefetchDepthT());
+  }
+
   private void step(ImportStep step) {
     this.step = step;
     notifyListeners(new StatusEvent(step.getStep(),
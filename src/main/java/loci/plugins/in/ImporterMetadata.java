@@ -27,30 +27,58 @@
 
 package loci.plugins.in;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
-import loci.formats.MetadataTools;
 
 /**
  * Helper class for storing original metadata key/value pairs.
+ *
+ * The reader's global and series metadata tables are not copied up front;
+ * they are merged into this map only once it is accessed as a map. Rendering
+ * the metadata as text reads the reader's tables directly.
  */
-public class ImporterMetadata extends HashMap<String, Object> {
+public class ImporterMetadata extends AbstractMap<String, Object> {
+
+  // -- Fields --
+
+  /** Key/value pairs, once the tables are merged. */
+  private final Map<String, Object> map = new HashMap<String, Object>();
+
+  /**
+   * Metadata tables not yet merged into this map, in order of increasing
+   * precedence, or null once merged.
+   */
+  private List<Map<String, Object>> tables =
+    new ArrayList<Map<String, Object>>();
+
+  /** Key prefix of each metadata table. */
+  private List<String> prefixes = new ArrayList<String>();
+
+  /** Metadata rendered by {@link #toString()}, or null if not yet done. */
+  private String info;
 
   // -- Constructor --
 
   public ImporterMetadata(IFormatReader r, ImportProcess process,
     boolean usePrefix)
   {
-    // merge global metadata
-    putAll(r.getGlobalMetadata());
+    // global metadata
+    addTable(r.getGlobalMetadata(), "");
 
-    // merge location path
-    put("Location", process.getCurrentFile());
+    // location path
+    addTable(Collections.singletonMap("Location",
+      (Object) process.getCurrentFile()), "");
 
     final ImporterOptions options = process.getOptions();
     final int oldSeries = r.getSeries();
@@ -76,55 +104,223 @@ public class ImporterMetadata extends HashMap<String, Object> {
         else s += ' ';
       }
 
-      // merge series metadata
-      Hashtable<String, Object> seriesMeta = r.getSeriesMetadata();
-      MetadataTools.merge(seriesMeta, this, s);
+      // series metadata
+      addTable(r.getSeriesMetadata(), s);
 
-      // merge core values
+      // core values
+      final Map<String, Object> core = new HashMap<String, Object>();
       final String pad = " "; // puts core values first when alphabetizing
-      put(pad + s + "SizeX", new Integer(r.getSizeX()));
-      put(pad + s + "SizeY", new Integer(r.getSizeY()));
-      put(pad + s + "SizeZ", new Integer(r.getSizeZ()));
-      put(pad + s + "SizeT", new Integer(r.getSizeT()));
-      put(pad + s + "SizeC", new Integer(r.getSizeC()));
-      put(pad + s + "IsRGB", new Boolean(r.isRGB()));
-      put(pad + s + "PixelType",
+      core.put(pad + s + "SizeX", new Integer(r.getSizeX()));
+      core.put(pad + s + "SizeY", new Integer(r.getSizeY()));
+      core.put(pad + s + "SizeZ", new Integer(r.getSizeZ()));
+      core.put(pad + s + "SizeT", new Integer(r.getSizeT()));
+      core.put(pad + s + "SizeC", new Integer(r.getSizeC()));
+      core.put(pad + s + "IsRGB", new Boolean(r.isRGB()));
+      core.put(pad + s + "PixelType",
         FormatTools.getPixelTypeString(r.getPixelType()));
-      put(pad + s + "LittleEndian", new Boolean(r.isLittleEndian()));
-      put(pad + s + "DimensionOrder", r.getDimensionOrder());
-      put(pad + s + "IsInterleaved", new Boolean(r.isInterleaved()));
-      put(pad + s + "BitsPerPixel", new Integer(r.getBitsPerPixel()));
+      core.put(pad + s + "LittleEndian", new Boolean(r.isLittleEndian()));
+      core.put(pad + s + "DimensionOrder", r.getDimensionOrder());
+      core.put(pad + s + "IsInterleaved", new Boolean(r.isInterleaved()));
+      core.put(pad + s + "BitsPerPixel", new Integer(r.getBitsPerPixel()));
 
       String seriesName = process.getOMEMetadata().getImageName(i);
-      put(pad + "Series " + i + " Name", seriesName);
+      core.put(pad + "Series " + i + " Name", seriesName);
+      addTable(core, "");
     }
     r.setSeries(oldSeries);
   }
 
+  // -- ImporterMetadata methods --
+
   /** Returns a string with each key/value pair on its own line. */
   public String getMetadataString(String separator) {
-    ArrayList<String> keys = new ArrayList<String>(keySet());
-    Collections.sort(keys);
-
-    StringBuffer sb = new StringBuffer();
-    for (String key : keys) {
-      sb.append(key);
-      sb.append(separator);
-      sb.append(get(key));
+    StringBuilder sb = new StringBuilder();
+    for (Iterator<String> lines = getLines(separator); lines.hasNext();) {
+      sb.append(lines.next());
       sb.append("\n");
     }
     return sb.toString();
   }
 
+  /**
+   * Gets the key/value pairs, sorted by key, one line at a time, so that
+   * they can be shown without building the whole text at once.
+   */
+  public synchronized Iterator<String> getLines(final String separator) {
+    final List<String> keys = getSortedKeys();
+    return new Iterator<String>() {
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < keys.size();
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final String key = keys.get(index++);
+        return key + separator + getValue(key);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  // -- Map API methods --
+
+  // NB: The methods Map provides on top of these, such as getOrDefault
+  // and putIfAbsent, are built upon them, so also see merged values.
+
+  @Override
+  public synchronized Object get(Object key) {
+    merge();
+    return map.get(key);
+  }
+
+  @Override
+  public synchronized boolean containsKey(Object key) {
+    merge();
+    return map.containsKey(key);
+  }
+
+  @Override
+  public synchronized boolean containsValue(Object value) {
+    merge();
+    return map.containsValue(value);
+  }
+
+  @Override
+  public synchronized int size() {
+    merge();
+    return map.size();
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    merge();
+    return map.isEmpty();
+  }
+
+  @Override
+  public synchronized Set<String> keySet() {
+    merge();
+    info = null;
+    return map.keySet();
+  }
+
+  @Override
+  public synchronized Collection<Object> values() {
+    merge();
+    info = null;
+    return map.values();
+  }
+
+  @Override
+  public synchronized Set<Map.Entry<String, Object>> entrySet() {
+    merge();
+    info = null;
+    return map.entrySet();
+  }
+
+  @Override
+  public synchronized Object put(String key, Object value) {
+    merge();
+    info = null;
+    return map.put(key, value);
+  }
+
+  @Override
+  public synchronized void putAll(Map<? extends String, ? extends Object> m) {
+    merge();
+    info = null;
+    map.putAll(m);
+  }
+
+  @Override
+  public synchronized Object remove(Object key) {
+    merge();
+    info = null;
+    return map.remove(key);
+  }
+
+  @Override
+  public synchronized void clear() {
+    merge();
+    info = null;
+    map.clear();
+  }
+
   // -- Object API methods --
 
+  /**
+   * Returns a string with each key/value pair on its own line.
+   * The string is rendered once and then reused.
+   */
   @Override
-  public String toString() {
-    return getMetadataString(" = ");
+  public synchronized String toString() {
+    if (info == null) info = getMetadataString(" = ");
+    return info;
   }
 
   // -- Helper methods --
 
+  private void addTable(Map<String, Object> table, String prefix) {
+    tables.add(table);
+    prefixes.add(prefix);
+  }
+
+  /**
+   * Merges the metadata tables into this map, each table replacing the
+   * values of those before it.
+   */
+  private void merge() {
+    if (tables == null) return;
+    for (int i=0; i<tables.size(); i++) {
+      final String prefix = prefixes.get(i);
+      for (Map.Entry<String, Object> e : tables.get(i).entrySet()) {
+        map.put(prefix + e.getKey(), e.getValue());
+      }
+    }
+    tables = null;
+    prefixes = null;
+  }
+
+  /** Gets all keys, sorted, whether or not merged into this map yet. */
+  private List<String> getSortedKeys() {
+    final List<String> keys = new ArrayList<String>(map.keySet());
+    if (tables != null) {
+      for (int i=0; i<tables.size(); i++) {
+        final String prefix = prefixes.get(i);
+        for (String key : tables.get(i).keySet()) keys.add(prefix + key);
+      }
+    }
+    Collections.sort(keys);
+
+    // NB: The same key may be found in more than one table.
+    int last = 0;
+    for (int i=1; i<keys.size(); i++) {
+      if (!keys.get(i).equals(keys.get(last))) keys.set(++last, keys.get(i));
+    }
+    if (!keys.isEmpty()) keys.subList(last + 1, keys.size()).clear();
+    return keys;
+  }
+
+  /** Gets the value of the given key, whether or not merged yet. */
+  private synchronized Object getValue(String key) {
+    if (tables == null) return map.get(key);
+    for (int i=tables.size()-1; i>=0; i--) {
+      final String prefix = prefixes.get(i);
+      if (!key.startsWith(prefix)) continue;
+      final String k = key.substring(prefix.length());
+      if (tables.get(i).containsKey(k)) return tables.get(i).get(k);
+    }
+    return null;
+  }
+
   /** Computes the given value's number of digits. */
   private static int digits(int value) {
     int digits = 0;
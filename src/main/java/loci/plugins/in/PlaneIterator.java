@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.in;
+
+import java.util.NoSuchElementException;
+
+import loci.formats.IFormatReader;
+
+/**
+ * Steps through the planes of one series which lie within the channel,
+ * focal plane and time point ranges chosen for import, in ascending order
+ * of plane index. Planes outside of the ranges are never visited.
+ */
+public class PlaneIterator {
+
+  // -- Fields --
+
+  private final IFormatReader reader;
+
+  /** Position within the dimension order of the Z, C and T axes. */
+  private final int[] axes = new int[3];
+
+  /** Range of each axis, fastest varying first. */
+  private final int[] begin = new int[3], end = new int[3], step = new int[3];
+
+  /** Coordinates of the next plane, fastest varying axis first. */
+  private final int[] pos = new int[3];
+
+  private final int count;
+
+  private boolean hasNext;
+
+  // -- Constructor --
+
+  /**
+   * Creates an iterator over the planes to import from the given series.
+   * Valid only after {@link ImportStep#SERIES}, and with the process's reader
+   * set to the given series.
+   */
+  public PlaneIterator(ImportProcess process, int s) {
+    reader = process.getReader();
+    final String order = reader.getDimensionOrder();
+    axes[0] = order.indexOf('Z') - 2;
+    axes[1] = order.indexOf('C') - 2;
+    axes[2] = order.indexOf('T') - 2;
+    setRange(axes[0], process.getZBegin(s), process.getZEnd(s),
+      process.getZStep(s));
+    setRange(axes[1], process.getCBegin(s), process.getCEnd(s),
+      process.getCStep(s));
+    setRange(axes[2], process.getTBegin(s), process.getTEnd(s),
+      process.getTStep(s));
+
+    int n = 1;
+    for (int i=0; i<3; i++) {
+      pos[i] = begin[i];
+      n *= begin[i] > end[i] ? 0 : (end[i] - begin[i] + step[i]) / step[i];
+    }
+    count = n;
+    hasNext = count > 0;
+  }
+
+  // -- PlaneIterator methods --
+
+  /** Gets the total number of planes visited by this iterator. */
+  public int getCount() { return count; }
+
+  public boolean hasNext() { return hasNext; }
+
+  /** Gets the index of the next plane, and advances past it. */
+  public int next() {
+    if (!hasNext) throw new NoSuchElementException();
+    final int no = reader.getIndex(pos[axes[0]], pos[axes[1]], pos[axes[2]]);
+
+    // NB: Advance like an odometer, so that plane indices keep ascending.
+    hasNext = false;
+    for (int i=0; i<3; i++) {
+      pos[i] += step[i];
+      if (pos[i] <= end[i]) {
+        hasNext = true;
+        break;
+      }
+      pos[i] = begin[i];
+    }
+    return no;
+  }
+
+  // -- Helper methods --
+
+  private void setRange(int axis, int first, int last, int inc) {
+    begin[axis] = first;
+    end[axis] = last;
+    step[axis] = inc;
+  }
+
+}
@@ -52,6 +52,7 @@ import loci.plugins.in.ImportProcess;
 import loci.plugins.in.ImporterOptions;
 import loci.plugins.util.ImageProcessorReader;
 import loci.plugins.util.LociPrefs;
+import loci.plugins.util.MemoCache;
 
 import ome.units.quantity.Length;
 import ome.units.quantity.Time;
@@ -98,8 +99,11 @@ public class LociFunctions extends MacroFunctions {
         new FileStitcher(LociPrefs.makeImageReader(), true)));
     }
     else {
-      r = new ImageProcessorReader(new ChannelSeparator(
-        LociPrefs.makeImageReader()));
+      // NB: File stitching opens several files per reader, so only
+      // ungrouped readers restore their state from the memo cache.
+      IFormatReader base = LociPrefs.makeImageReader();
+      if (LociPrefs.isMemoCacheEnabled()) base = MemoCache.memoize(base);
+      r = new ImageProcessorReader(new ChannelSeparator(base));
     }
     try {
       ServiceFactory factory = new ServiceFactory();
@@ -39,9 +39,7 @@ import ij.io.FileInfo;
 import ij.io.OpenDialog;
 import ij.measure.Calibration;
 import ij.plugin.frame.Recorder;
-import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
 import ij.process.ShortProcessor;
@@ -52,12 +50,16 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 
-import loci.common.DataTools;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
@@ -71,13 +73,16 @@ import loci.formats.gui.ExtensionFileFilter;
 import loci.formats.gui.GUITools;
 import loci.formats.gui.Index16ColorModel;
 import loci.formats.meta.IMetadata;
+import loci.formats.out.TiffWriter;
 import loci.formats.services.OMEXMLService;
 import loci.plugins.BF;
 import loci.plugins.LociExporter;
+import loci.plugins.util.BFVirtualStack;
+import loci.plugins.util.LociPrefs;
 import loci.plugins.util.ROIHandler;
-import loci.plugins.util.RecordedImageProcessor;
 import loci.plugins.util.WindowTools;
 import ome.units.UNITS;
+import ome.units.quantity.Length;
 import ome.units.quantity.Time;
 import ome.xml.meta.OMEXMLMetadataRoot;
 import ome.xml.model.ROI;
@@ -140,6 +145,8 @@ public class Exporter {
         Boolean padded = null;
         Boolean saveRoi = null;
         String compression = null;
+        Integer tileSize = null;
+        Integer pyramidLevels = null;
 
         Boolean windowless = Boolean.FALSE;
         if (plugin.arg != null) {
@@ -151,6 +158,9 @@ public class Exporter {
             String zeroPad = Macro.getValue(plugin.arg, "padded", null);
             String sr = Macro.getValue(plugin.arg, "saveRoi", null);
             compression = Macro.getValue(plugin.arg, "compression", null);
+            tileSize = parseCount(Macro.getValue(plugin.arg, "tileSize", null));
+            pyramidLevels =
+                parseCount(Macro.getValue(plugin.arg, "pyramidLevels", null));
             String id = Macro.getValue(plugin.arg, "imageid", null);
             splitZ = z == null ? null : Boolean.valueOf(z);
             splitC = c == null ? null : Boolean.valueOf(c);
@@ -179,6 +189,19 @@ public class Exporter {
                 if (save != null) outfile = save;
             }
         }
+        if (tileSize == null) {
+            String options = Macro.getOptions();
+            if (options != null) {
+                tileSize = parseCount(Macro.getValue(options, "tileSize", null));
+            }
+        }
+        if (pyramidLevels == null) {
+            String options = Macro.getOptions();
+            if (options != null) {
+                pyramidLevels =
+                    parseCount(Macro.getValue(options, "pyramidLevels", null));
+            }
+        }
         //create a temporary file if window less
         if (windowless && (outfile == null || outfile.length() == 0)) {
             File tmp = null;
@@ -508,6 +531,7 @@ public class Exporter {
                 store.setPixelsSizeT(new PositiveInteger(1), 0);
             }
 
+            int validBits = 0;
             Object info = imp.getProperty("Info");
             if (info != null) {
                 String imageInfo = info.toString();
@@ -520,7 +544,8 @@ public class Exporter {
                             String value = line.substring(eq + 1).trim();
 
                             if (key.endsWith("BitsPerPixel")) {
-                                w.setValidBitsPerPixel(Integer.parseInt(value));
+                                validBits = Integer.parseInt(value);
+                                w.setValidBitsPerPixel(validBits);
                                 break;
                             }
                         }
@@ -631,11 +656,17 @@ public class Exporter {
                     } else {
                         gd.addCheckbox("Export ROIs", true);
                     }
+                    gd.addNumericField("Tile_size", tileSize == null ? 0 :
+                            tileSize.intValue(), 0, 6, "pixels (0 for whole planes)");
+                    gd.addNumericField("Pyramid_levels", pyramidLevels == null ?
+                            0 : pyramidLevels.intValue(), 0, 6, "(OME-TIFF only)");
                     gd.showDialog();
                     saveRoi = gd.getNextBoolean();
 
                     if (gd.wasCanceled()) return;
                     compression = gd.getNextChoice();
+                    tileSize = Math.max(0, (int) gd.getNextNumber());
+                    pyramidLevels = Math.max(0, (int) gd.getNextNumber());
                 }
             }
             boolean in = false;
@@ -669,6 +700,17 @@ public class Exporter {
             if (saveRoi != null && saveRoi.booleanValue()) {
                 ROIHandler.saveROIs(store);
             }
+            // NB: Sub-resolution levels are written as additional images of
+            // a single OME-TIFF file, each half the size of the previous one.
+            int levels = pyramidLevels == null ? 0 : pyramidLevels.intValue();
+            if (levels > 0 && (outputFiles.length > 1 ||
+                    !w.getFormat().equals("OME-TIFF") || notSupportedType))
+            {
+                BF.warn(false, "Pyramid levels can only be written " +
+                        "to a single OME-TIFF file");
+                levels = 0;
+            }
+            if (levels > 0) addResolutions(store, levels);
             w.setMetadataRetrieve(store);
             // convert and save slices
 
@@ -689,137 +731,114 @@ public class Exporter {
             byte[] plane = null;
             w.setInterleaved(false);
 
-            int[] no = new int[outputFiles.length];
-            for (int i=start; i<end; i++) {
-                if (doStack) {
-                    BF.status(false, "Saving plane " + (i + 1) + "/" + size);
-                    BF.progress(false, i, size);
-                }
-                else BF.status(false, "Saving image");
-                proc = is.getProcessor(i + 1);
-
-                if (proc instanceof RecordedImageProcessor) {
-                    proc = ((RecordedImageProcessor) proc).getChild();
-                }
-
-                int x = proc.getWidth();
-                int y = proc.getHeight();
-
-                if (proc instanceof ByteProcessor) {
-                    if (applyCalibrationFunction) {
-                      // don't alter 'pixels' directly as that will
-                      // affect the open ImagePlus
-                      byte[] pixels = (byte[]) proc.getPixels();
-                      plane = new byte[pixels.length];
-                      float[] calibration = proc.getCalibrationTable();
-                      for (int pixel=0; pixel<pixels.length; pixel++) {
-                        plane[pixel] = (byte) calibration[pixels[pixel] & 0xff];
-                      }
-                    }
-                    else {
-                      plane = (byte[]) proc.getPixels();
-                    }
-                }
-                else if (proc instanceof ShortProcessor) {
-                    short[] pixels = (short[]) proc.getPixels();
-                    if (applyCalibrationFunction) {
-                      // don't alter 'pixels' directly as that will
-                      // affect the open ImagePlus
-                      plane = new byte[pixels.length * 2];
-                      float[] calibration = proc.getCalibrationTable();
-                      for (int pixel=0; pixel<pixels.length; pixel++) {
-                        short v = (short) calibration[pixels[pixel] & 0xffff];
-                        DataTools.unpackBytes(
-                          v, plane, pixel * 2, 2, littleEndian);
-                      }
-                    }
-                    else {
-                      plane = DataTools.shortsToBytes(pixels, littleEndian);
-                    }
-                }
-                else if (proc instanceof FloatProcessor) {
-                    plane = DataTools.floatsToBytes(
-                            (float[]) proc.getPixels(), littleEndian);
-                }
-                else if (proc instanceof ColorProcessor) {
-                    byte[][] pix = new byte[3][x*y];
-                    ((ColorProcessor) proc).getRGB(pix[0], pix[1], pix[2]);
-                    plane = new byte[3 * x * y];
-                    System.arraycopy(pix[0], 0, plane, 0, x * y);
-                    System.arraycopy(pix[1], 0, plane, x * y, x * y);
-                    System.arraycopy(pix[2], 0, plane, 2 * x * y, x * y);
-
-                    if (i == start) {
-                        sizeC /= 3;
-                    }
-                }
+            // NB: RGB planes are written as three channels.
+            if (proc instanceof ColorProcessor) {
+                sizeC /= 3;
+            }
 
-                int fileIndex = 0;
-                if (doStack) {
-                    int[] coords =
-                            FormatTools.getZCTCoords(ORDER, sizeZ, sizeC, sizeT, size, i);
-                    int realZ = sizeZ;
-                    int realC = sizeC;
-                    int realT = sizeT;
+            // NB: Files of formats other than OME-XML based ones are
+            // self-contained, so each can be written concurrently by a writer
+            // of its own, instead of switching one writer between the files.
+            boolean multiWriter = doStack && outputFiles.length > 1 &&
+                    !notSupportedType && !w.getFormat().startsWith("OME");
+
+            // NB: Otherwise, planes are converted ahead by a pool of worker
+            // threads, if so configured, while this thread writes them in order.
+            int threads =
+                    doStack && !multiWriter ? LociPrefs.getExportThreads() : 1;
+            // NB: Virtual stacks read each plane as it is converted, so read
+            // at least one plane ahead while the previous one is written.
+            if (doStack && !multiWriter && is instanceof BFVirtualStack) {
+                threads = Math.max(2, threads);
+            }
+            PlaneConverter converter = new PlaneConverter(is,
+                    applyCalibrationFunction, littleEndian, start, end, threads);
+
+            // NB: Tiled planes are converted one tile at a time as they are
+            // written, so that no byte array the size of a plane is needed.
+            // Only TIFF based writers can write planes a tile at a time;
+            // other formats are written whole planes at a time.
+            int tiles = tileSize == null ? 0 : tileSize.intValue();
+            if (tiles > 0 && !(w instanceof TiffWriter)) {
+                BF.warn(false, "Tiles can only be written to TIFF based " +
+                        "formats; writing whole planes");
+                tiles = 0;
+            }
+            converter.setConvertPlanes(tiles <= 0);
 
-                    if (!splitZ) {
-                        coords[0] = 0;
-                        realZ = 1;
+            int[] no = new int[outputFiles.length];
+            try {
+                if (multiWriter) {
+                    int[][] filePlanes = new int[outputFiles.length][];
+                    LUT[] planeLuts = new LUT[size];
+                    for (int i=start; i<end; i++) {
+                        no[getFileIndex(i, size, sizeZ, sizeC, sizeT,
+                                splitZ, splitC, splitT)]++;
+                        planeLuts[i] = luts[FormatTools.getZCTCoords(
+                                ORDER, sizeZ, sizeC, sizeT, size, i)[1]];
                     }
-                    if (!splitC) {
-                        coords[1] = 0;
-                        realC = 1;
+                    for (int file=0; file<no.length; file++) {
+                        filePlanes[file] = new int[no[file]];
+                        no[file] = 0;
                     }
-                    if (!splitT) {
-                        coords[2] = 0;
-                        realT = 1;
+                    for (int i=start; i<end; i++) {
+                        int fileIndex = getFileIndex(i, size, sizeZ, sizeC, sizeT,
+                                splitZ, splitC, splitT);
+                        filePlanes[fileIndex][no[fileIndex]++] = i;
                     }
-                    fileIndex = FormatTools.getIndex(ORDER, realZ, realC, realT,
-                            realZ * realC * realT, coords[0], coords[1], coords[2]);
-                }
-
-                if (notSupportedType) {
-                    IJ.error("Pixel type not supported by this format.");
+                    writeFiles(w, validBits, tiles, outputFiles, filePlanes,
+                            converter, planeLuts, thisType, littleEndian, size);
                 }
                 else {
-                    w.changeOutputFile(outputFiles[fileIndex]);
+                    for (int i=start; i<end; i++) {
+                        if (doStack) {
+                            BF.status(false, "Saving plane " + (i + 1) + "/" + size);
+                            BF.progress(false, i, size);
+                        }
+                        else BF.status(false, "Saving image");
+                        PlaneConverter.Plane next = converter.next();
+                        proc = next.getProcessor();
+                        plane = next.getBytes();
+
+                        int fileIndex = 0;
+                        if (doStack) {
+                            fileIndex = getFileIndex(i, size, sizeZ, sizeC, sizeT,
+                                    splitZ, splitC, splitT);
+                        }
 
-                    int currentChannel = FormatTools.getZCTCoords(
-                            ORDER, sizeZ, sizeC, sizeT, imp.getStackSize(), i)[1];
+                        if (notSupportedType) {
+                            IJ.error("Pixel type not supported by this format.");
+                        }
+                        else {
+                            w.changeOutputFile(outputFiles[fileIndex]);
 
-                    if (luts[currentChannel] != null) {
-                        // expand to 16-bit LUT if necessary
+                            int currentChannel = FormatTools.getZCTCoords(
+                                    ORDER, sizeZ, sizeC, sizeT, imp.getStackSize(), i)[1];
 
-                        int bpp = FormatTools.getBytesPerPixel(thisType);
-                        if (bpp == 1) {
-                            w.setColorModel(luts[currentChannel]);
-                        }
-                        else if (bpp == 2) {
-                            int lutSize = luts[currentChannel].getMapSize();
-                            byte[][] lut = new byte[3][lutSize];
-                            luts[currentChannel].getReds(lut[0]);
-                            luts[currentChannel].getGreens(lut[1]);
-                            luts[currentChannel].getBlues(lut[2]);
-
-                            short[][] newLut = new short[3][65536];
-                            int bins = newLut[0].length / lut[0].length;
-                            for (int c=0; c<newLut.length; c++) {
-                                for (int q=0; q<newLut[c].length; q++) {
-                                    int index = q / bins;
-                                    newLut[c][q] = (short) ((lut[c][index] * lut[0].length) + (q % bins));
-                                }
+                            setColorModel(w, luts[currentChannel], proc, thisType,
+                                    littleEndian);
+                            if (tiles > 0) {
+                                writeTiles(w, no[fileIndex], proc, converter,
+                                        tiles);
                             }
-
-                            w.setColorModel(new Index16ColorModel(16, newLut[0].length,
-                                    newLut, littleEndian));
+                            else w.saveBytes(no[fileIndex], plane);
+                            no[fileIndex]++;
                         }
                     }
-                    else if (!proc.isDefaultLut()) {
-                        w.setColorModel(proc.getColorModel());
+                    // NB: OMETiffWriter numbers the IFDs of each image in the
+                    // order its planes are written, so the sub-resolution
+                    // levels are only written once all planes of the first
+                    // image are, each level in a pass of its own.
+                    for (int l=1; l<=levels; l++) {
+                        writeResolution(w, is, l, levels,
+                                applyCalibrationFunction, littleEndian, start,
+                                end, threads, tiles);
                     }
-                    w.saveBytes(no[fileIndex]++, plane);
                 }
             }
+            finally {
+                converter.close();
+            }
             w.close();
         }
         catch (FormatException e) {
@@ -830,4 +849,286 @@ public class Exporter {
         }
     }
 
+    // -- Helper methods --
+
+    /**
+     * Gets the index of the output file to which the given plane is written,
+     * when splitting the stack along the given dimensions.
+     */
+    private int getFileIndex(int no, int size, int sizeZ, int sizeC, int sizeT,
+            boolean splitZ, boolean splitC, boolean splitT)
+    {
+        int[] coords = FormatTools.getZCTCoords(ORDER, sizeZ, sizeC, sizeT, size, no);
+        int realZ = sizeZ;
+        int realC = sizeC;
+        int realT = sizeT;
+
+        if (!splitZ) {
+            coords[0] = 0;
+            realZ = 1;
+        }
+        if (!splitC) {
+            coords[1] = 0;
+            realC = 1;
+        }
+        if (!splitT) {
+            coords[2] = 0;
+            realT = 1;
+        }
+        return FormatTools.getIndex(ORDER, realZ, realC, realT,
+                realZ * realC * realT, coords[0], coords[1], coords[2]);
+    }
+
+    /**
+     * Sets the writer's color model for the next plane, from the given
+     * channel LUT if any, or else from the plane's own LUT.
+     */
+    private void setColorModel(IFormatWriter w, LUT lut, ImageProcessor proc,
+            int thisType, boolean littleEndian)
+    {
+        if (lut != null) {
+            // expand to 16-bit LUT if necessary
+
+            int bpp = FormatTools.getBytesPerPixel(thisType);
+            if (bpp == 1) {
+                w.setColorModel(lut);
+            }
+            else if (bpp == 2) {
+                int lutSize = lut.getMapSize();
+                byte[][] lutBytes = new byte[3][lutSize];
+                lut.getReds(lutBytes[0]);
+                lut.getGreens(lutBytes[1]);
+                lut.getBlues(lutBytes[2]);
+
+                short[][] newLut = new short[3][65536];
+                int bins = newLut[0].length / lutBytes[0].length;
+                for (int c=0; c<newLut.length; c++) {
+                    for (int q=0; q<newLut[c].length; q++) {
+                        int index = q / bins;
+                        newLut[c][q] = (short) ((lutBytes[c][index] * lutBytes[0].length) + (q % bins));
+                    }
+                }
+
+                w.setColorModel(new Index16ColorModel(16, newLut[0].length,
+                        newLut, littleEndian));
+            }
+        }
+        else if (!proc.isDefaultLut()) {
+            w.setColorModel(proc.getColorModel());
+        }
+    }
+
+    /**
+     * Writes each output file with a writer of its own, configured like the
+     * given writer, using a bounded pool of threads to write several files
+     * at once.
+     *
+     * @param filePlanes Indices of the planes written to each file, in order.
+     * @param planeLuts The channel LUT of each plane, if any.
+     */
+    private void writeFiles(final IFormatWriter template, final int validBits,
+            final int tileSize, String[] outputFiles, int[][] filePlanes,
+            final PlaneConverter converter, final LUT[] planeLuts,
+            final int thisType, final boolean littleEndian, final int size)
+            throws FormatException, IOException
+    {
+        int threads = Math.min(Math.max(1, LociPrefs.getExportThreads()),
+                outputFiles.length);
+        final AtomicInteger written = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int f=0; f<outputFiles.length; f++) {
+                final String file = outputFiles[f];
+                final int[] planes = filePlanes[f];
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws FormatException, IOException {
+                        try (IFormatWriter writer = newWriter(template)) {
+                            writer.setWriteSequentially(true);
+                            writer.setMetadataRetrieve(
+                                    template.getMetadataRetrieve());
+                            if (template.getCompression() != null) {
+                                writer.setCompression(template.getCompression());
+                            }
+                            int rate = template.getFramesPerSecond();
+                            if (rate > 0) writer.setFramesPerSecond(rate);
+                            if (validBits > 0) {
+                                writer.setValidBitsPerPixel(validBits);
+                            }
+                            writer.setInterleaved(false);
+                            writer.setId(file);
+
+                            for (int p=0; p<planes.length; p++) {
+                                PlaneConverter.Plane plane =
+                                        converter.getPlane(planes[p]);
+                                setColorModel(writer, planeLuts[planes[p]],
+                                        plane.getProcessor(), thisType,
+                                        littleEndian);
+                                if (tileSize > 0) {
+                                    writeTiles(writer, p, plane.getProcessor(),
+                                            converter, tileSize);
+                                }
+                                else writer.saveBytes(p, plane.getBytes());
+
+                                int n = written.incrementAndGet();
+                                BF.status(false, "Saving plane " + n + "/" + size);
+                                BF.progress(false, n, size);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                PlaneConverter.getResult(result);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Creates a new writer of the same class as the given one. */
+    private IFormatWriter newWriter(IFormatWriter template)
+            throws FormatException
+    {
+        try {
+            return template.getClass().newInstance();
+        }
+        catch (InstantiationException e) {
+            throw new FormatException(e);
+        }
+        catch (IllegalAccessException e) {
+            throw new FormatException(e);
+        }
+    }
+
+    /**
+     * Writes the given plane one tile at a time, converting each tile
+     * directly from the pixels of the processor.
+     */
+    private void writeTiles(IFormatWriter w, int no, ImageProcessor proc,
+            PlaneConverter converter, int tileSize)
+            throws FormatException, IOException
+    {
+        int width = proc.getWidth();
+        int height = proc.getHeight();
+        // NB: The writer may adjust the tile size to suit its format.
+        int tileWidth = w.setTileSizeX(Math.min(tileSize, width));
+        int tileHeight = w.setTileSizeY(Math.min(tileSize, height));
+        for (int y=0; y<height; y+=tileHeight) {
+            int h = Math.min(tileHeight, height - y);
+            for (int x=0; x<width; x+=tileWidth) {
+                int tw = Math.min(tileWidth, width - x);
+                w.saveBytes(no, converter.toBytes(proc, x, y, tw, h), x, y, tw, h);
+            }
+        }
+    }
+
+    /**
+     * Adds an image to the metadata for each sub-resolution level, with the
+     * same dimensions as the first image apart from a width and height half
+     * those of the previous level.
+     */
+    private void addResolutions(IMetadata store, int levels) {
+        int width = store.getPixelsSizeX(0).getValue();
+        int height = store.getPixelsSizeY(0).getValue();
+        String name = store.getImageName(0);
+        Length physicalSizeX = store.getPixelsPhysicalSizeX(0);
+        Length physicalSizeY = store.getPixelsPhysicalSizeY(0);
+        for (int l=1; l<=levels; l++) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            store.setImageID(MetadataTools.createLSID("Image", l), l);
+            if (name != null) {
+                store.setImageName(name + " (resolution " + l + ")", l);
+            }
+            store.setPixelsID(MetadataTools.createLSID("Pixels", l), l);
+            store.setPixelsDimensionOrder(store.getPixelsDimensionOrder(0), l);
+            store.setPixelsType(store.getPixelsType(0), l);
+            store.setPixelsSizeX(new PositiveInteger(width), l);
+            store.setPixelsSizeY(new PositiveInteger(height), l);
+            store.setPixelsSizeZ(store.getPixelsSizeZ(0), l);
+            store.setPixelsSizeC(store.getPixelsSizeC(0), l);
+            store.setPixelsSizeT(store.getPixelsSizeT(0), l);
+            store.setPixelsBinDataBigEndian(
+                    store.getPixelsBinDataBigEndian(0, 0), l, 0);
+            for (int c=0; c<store.getChannelCount(0); c++) {
+                store.setChannelID(MetadataTools.createLSID("Channel", l, c),
+                        l, c);
+                if (store.getChannelSamplesPerPixel(0, c) != null) {
+                    store.setChannelSamplesPerPixel(
+                            store.getChannelSamplesPerPixel(0, c), l, c);
+                }
+            }
+            double scale = 1 << l;
+            if (physicalSizeX != null) {
+                store.setPixelsPhysicalSizeX(new Length(
+                        physicalSizeX.value().doubleValue() * scale,
+                        physicalSizeX.unit()), l);
+            }
+            if (physicalSizeY != null) {
+                store.setPixelsPhysicalSizeY(new Length(
+                        physicalSizeY.value().doubleValue() * scale,
+                        physicalSizeY.unit()), l);
+            }
+            store.setPixelsPhysicalSizeZ(store.getPixelsPhysicalSizeZ(0), l);
+            store.setPixelsTimeIncrement(store.getPixelsTimeIncrement(0), l);
+        }
+    }
+
+    /**
+     * Writes the given sub-resolution level to the image of the same index,
+     * reading the planes of the stack again, one at a time, and downsampling
+     * each as many times as the level's index, so that no more than a few
+     * planes are held at once.
+     */
+    private void writeResolution(IFormatWriter w, ImageStack stack, int level,
+            int levels, boolean calibrate, boolean littleEndian, int start,
+            int end, int threads, int tileSize)
+            throws FormatException, IOException
+    {
+        BF.status(false, "Saving resolution " + level + "/" + levels);
+        w.setSeries(level);
+        PlaneConverter converter = new PlaneConverter(stack, calibrate,
+                littleEndian, start, end, threads);
+        converter.setConvertPlanes(false);
+        try {
+            for (int p=0; converter.hasNext(); p++) {
+                BF.progress(false, p, end - start);
+                ImageProcessor proc = converter.next().getProcessor();
+                for (int l=0; l<level; l++) proc = downsample(proc);
+                if (tileSize > 0) writeTiles(w, p, proc, converter, tileSize);
+                else w.saveBytes(p, converter.toBytes(proc));
+            }
+        }
+        finally {
+            converter.close();
+        }
+    }
+
+    /**
+     * Downsamples the given plane to half its width and height, by averaging
+     * blocks of two by two pixels.
+     */
+    private ImageProcessor downsample(ImageProcessor proc) {
+        proc.setInterpolationMethod(ImageProcessor.BILINEAR);
+        ImageProcessor level = proc.resize(Math.max(1, proc.getWidth() / 2),
+                Math.max(1, proc.getHeight() / 2), true);
+        level.setCalibrationTable(proc.getCalibrationTable());
+        return level;
+    }
+
+    /** Parses the given non-negative integer option, ignoring invalid values. */
+    private Integer parseCount(String value) {
+        if (value == null) return null;
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,356 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.out;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import loci.common.DataTools;
+import loci.formats.FormatException;
+import loci.plugins.util.BFVirtualStack;
+import loci.plugins.util.RecordedImageProcessor;
+
+/**
+ * Converts a range of planes of an image stack into the raw bytes written by
+ * the Bio-Formats Exporter, in order. With more than one thread, planes are
+ * converted ahead of time by a pool of worker threads, so that conversion
+ * overlaps with the writing of earlier planes. Planes of a
+ * {@link BFVirtualStack} are read for conversion without affecting its view.
+ * Other virtual stacks are not meant to be read by several threads at once,
+ * so their planes are always converted one at a time.
+ */
+public class PlaneConverter implements Closeable {
+
+  // -- Fields --
+
+  private final ImageStack stack;
+
+  /** Whether to apply the calibration function of 8- and 16-bit planes. */
+  private final boolean calibrate;
+
+  private final boolean littleEndian;
+
+  /** Index of the next plane to hand out, and of the next one to convert. */
+  private int next, nextTask;
+
+  /** Index following the last plane to convert. */
+  private final int end;
+
+  /** Maximum number of planes converted ahead of the next plane. */
+  private final int readAhead;
+
+  private final ExecutorService executor;
+
+  private final LinkedList<Future<Plane>> pending =
+    new LinkedList<Future<Plane>>();
+
+  /** Whether whole planes are converted to bytes ahead of time. */
+  private volatile boolean convertPlanes = true;
+
+  // -- Constructor --
+
+  /**
+   * Creates a converter for the given range of planes.
+   *
+   * @param stack The image stack to convert.
+   * @param calibrate Whether to apply the calibration function of 8- and
+   *   16-bit planes, such as for signed data.
+   * @param littleEndian Byte order of multi-byte samples.
+   * @param start Index of the first plane to convert, starting at 0.
+   * @param end Index following the last plane to convert.
+   * @param threads Number of planes to convert concurrently; ignored for
+   *   virtual stacks other than a {@link BFVirtualStack}.
+   */
+  public PlaneConverter(ImageStack stack, boolean calibrate,
+    boolean littleEndian, int start, int end, int threads)
+  {
+    this.stack = stack;
+    this.calibrate = calibrate;
+    this.littleEndian = littleEndian;
+    this.next = this.nextTask = start;
+    this.end = end;
+    threads = Math.min(threads, end - start);
+    if (stack.isVirtual() && !(stack instanceof BFVirtualStack)) threads = 1;
+    readAhead = 2 * threads;
+    executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+  }
+
+  // -- PlaneConverter methods --
+
+  /**
+   * Sets whether whole planes are converted to bytes as they are obtained.
+   * Otherwise, only the processor of each plane is obtained, and the
+   * {@link Plane#getBytes() bytes} of the plane are null, for callers which
+   * convert parts of the plane via {@link #toBytes(ImageProcessor, int, int,
+   * int, int)} instead.
+   */
+  public void setConvertPlanes(boolean convertPlanes) {
+    this.convertPlanes = convertPlanes;
+  }
+
+  public boolean hasNext() { return next < end; }
+
+  /** Gets the next plane, waiting for it to be converted if necessary. */
+  public Plane next() throws FormatException, IOException {
+    if (!hasNext()) throw new NoSuchElementException();
+    if (executor == null) return convert(next++);
+
+    while (nextTask < end && pending.size() < readAhead) {
+      final int no = nextTask++;
+      pending.add(executor.submit(new Callable<Plane>() {
+        @Override
+        public Plane call() throws FormatException, IOException {
+          return convert(no);
+        }
+      }));
+    }
+    next++;
+    return getResult(pending.removeFirst());
+  }
+
+  /**
+   * Converts the pixels of the given processor to bytes. The processor's
+   * own pixels are never modified.
+   */
+  public byte[] toBytes(ImageProcessor proc) {
+    if (proc instanceof ByteProcessor) {
+      final byte[] pixels = (byte[]) proc.getPixels();
+      if (!calibrate) return pixels;
+      final byte[] plane = new byte[pixels.length];
+      final float[] calibration = proc.getCalibrationTable();
+      for (int pixel=0; pixel<pixels.length; pixel++) {
+        plane[pixel] = (byte) calibration[pixels[pixel] & 0xff];
+      }
+      return plane;
+    }
+    if (proc instanceof ShortProcessor) {
+      final short[] pixels = (short[]) proc.getPixels();
+      if (!calibrate) return DataTools.shortsToBytes(pixels, littleEndian);
+      final byte[] plane = new byte[pixels.length * 2];
+      final float[] calibration = proc.getCalibrationTable();
+      for (int pixel=0; pixel<pixels.length; pixel++) {
+        final short v = (short) calibration[pixels[pixel] & 0xffff];
+        DataTools.unpackBytes(v, plane, pixel * 2, 2, littleEndian);
+      }
+      return plane;
+    }
+    if (proc instanceof FloatProcessor) {
+      return DataTools.floatsToBytes((float[]) proc.getPixels(), littleEndian);
+    }
+    if (proc instanceof ColorProcessor) {
+      // NB: Channels are stored one after the other, not interleaved.
+      final int size = proc.getWidth() * proc.getHeight();
+      final byte[] plane = new byte[3 * size];
+      final int[] pixels = (int[]) proc.getPixels();
+      for (int pixel=0; pixel<size; pixel++) {
+        final int rgb = pixels[pixel];
+        plane[pixel] = (byte) (rgb >> 16);
+        plane[size + pixel] = (byte) (rgb >> 8);
+        plane[2 * size + pixel] = (byte) rgb;
+      }
+      return plane;
+    }
+    return null;
+  }
+
+  /**
+   * Gets the given plane, converting it on the calling thread. Planes may be
+   * obtained this way from several threads at once, though the planes of
+   * most virtual stacks are still read one at a time.
+   *
+   * @param no Index of the plane within the stack, starting at 0.
+   */
+  public Plane getPlane(int no) throws FormatException, IOException {
+    return convert(no);
+  }
+
+  /**
+   * Converts the pixels of the given region of the processor to bytes,
+   * without converting the rest of the plane. As for whole planes, the
+   * channels of RGB pixels are stored one after the other.
+   */
+  public byte[] toBytes(ImageProcessor proc, int x, int y, int w, int h) {
+    final int width = proc.getWidth();
+    if (x == 0 && y == 0 && w == width && h == proc.getHeight()) {
+      return toBytes(proc);
+    }
+    final int size = w * h;
+    final float[] calibration = calibrate ? proc.getCalibrationTable() : null;
+    if (proc instanceof ByteProcessor) {
+      final byte[] pixels = (byte[]) proc.getPixels();
+      final byte[] tile = new byte[size];
+      for (int row=0, i=0; row<h; row++) {
+        final int offset = (y + row) * width + x;
+        if (calibration == null) {
+          System.arraycopy(pixels, offset, tile, i, w);
+          i += w;
+          continue;
+        }
+        for (int col=0; col<w; col++, i++) {
+          tile[i] = (byte) calibration[pixels[offset + col] & 0xff];
+        }
+      }
+      return tile;
+    }
+    if (proc instanceof ShortProcessor) {
+      final short[] pixels = (short[]) proc.getPixels();
+      final byte[] tile = new byte[size * 2];
+      for (int row=0, i=0; row<h; row++) {
+        final int offset = (y + row) * width + x;
+        for (int col=0; col<w; col++, i++) {
+          short v = pixels[offset + col];
+          if (calibration != null) v = (short) calibration[v & 0xffff];
+          DataTools.unpackBytes(v, tile, i * 2, 2, littleEndian);
+        }
+      }
+      return tile;
+    }
+    if (proc instanceof FloatProcessor) {
+      final float[] pixels = (float[]) proc.getPixels();
+      final byte[] tile = new byte[size * 4];
+      for (int row=0, i=0; row<h; row++) {
+        final int offset = (y + row) * width + x;
+        for (int col=0; col<w; col++, i++) {
+          final int v = Float.floatToIntBits(pixels[offset + col]);
+          DataTools.unpackBytes(v, tile, i * 4, 4, littleEndian);
+        }
+      }
+      return tile;
+    }
+    if (proc instanceof ColorProcessor) {
+      final int[] pixels = (int[]) proc.getPixels();
+      final byte[] tile = new byte[size * 3];
+      for (int row=0, i=0; row<h; row++) {
+        final int offset = (y + row) * width + x;
+        for (int col=0; col<w; col++, i++) {
+          final int rgb = pixels[offset + col];
+          tile[i] = (byte) (rgb >> 16);
+          tile[size + i] = (byte) (rgb >> 8);
+          tile[2 * size + i] = (byte) rgb;
+        }
+      }
+      return tile;
+    }
+    return null;
+  }
+
+  // -- Closeable methods --
+
+  @Override
+  public void close() {
+    if (executor != null) executor.shutdownNow();
+    pending.clear();
+  }
+
+  // -- Package-private utility methods --
+
+  /** Waits for the given task to complete, unwrapping any failure. */
+  static <T> T getResult(Future<T> result)
+    throws FormatException, IOException
+  {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException exc) {
+      throw new FormatException(exc);
+    }
+    catch (ExecutionException exc) {
+      final Throwable cause = exc.getCause();
+      if (cause instanceof FormatException) throw (FormatException) cause;
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new FormatException(cause);
+    }
+  }
+
+  // -- Helper methods --
+
+  private Plane convert(int no) throws FormatException, IOException {
+    // NB: Planes of virtual stacks are read straight from the reader where
+    // possible, bypassing the plane cache and edit recording of the view.
+    ImageProcessor proc = null;
+    if (stack instanceof BFVirtualStack) {
+      proc = ((BFVirtualStack) stack).readSlice(no + 1);
+    }
+    if (proc == null) {
+      // NB: Virtual stacks are not meant to be read by several threads at
+      // once, and getProcessor also changes the slice they show.
+      if (stack.isVirtual()) {
+        synchronized (stack) {
+          proc = stack.getProcessor(no + 1);
+        }
+      }
+      else proc = stack.getProcessor(no + 1);
+    }
+    if (proc instanceof RecordedImageProcessor) {
+      proc = ((RecordedImageProcessor) proc).getChild();
+    }
+    return new Plane(no, proc, convertPlanes ? toBytes(proc) : null);
+  }
+
+  // -- Helper classes --
+
+  /** A plane of an image stack, along with its converted bytes. */
+  public static class Plane {
+
+    private final int no;
+    private final ImageProcessor processor;
+    private final byte[] bytes;
+
+    public Plane(int no, ImageProcessor processor, byte[] bytes) {
+      this.no = no;
+      this.processor = processor;
+      this.bytes = bytes;
+    }
+
+    /** Gets the index of the plane within the stack, starting at 0. */
+    public int getIndex() { return no; }
+
+    public ImageProcessor getProcessor() { return processor; }
+
+    public byte[] getBytes() { return bytes; }
+
+  }
+
+}
@@ -28,12 +28,18 @@
 package loci.plugins.util;
 
 import ij.VirtualStack;
+import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 
 import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import loci.formats.ChannelMerger;
 import loci.formats.FormatException;
@@ -42,8 +48,7 @@ import loci.formats.IFormatReader;
 import loci.formats.Modulo;
 import loci.formats.cache.Cache;
 import loci.formats.cache.CacheException;
-import loci.formats.cache.CacheStrategy;
-import loci.formats.cache.CrosshairStrategy;
+import loci.plugins.BF;
 import loci.plugins.util.RecordedImageProcessor.MethodEntry;
 
 /**
@@ -53,16 +58,30 @@ import loci.plugins.util.RecordedImageProcessor.MethodEntry;
  */
 public class BFVirtualStack extends VirtualStack {
 
+  // -- Constants --
+
+  /** Number of locks over which the reading of slices is spread. */
+  private static final int LOCK_STRIPES = 16;
+
+  /** Number of generated slice labels to retain. */
+  private static final int LABEL_CACHE_SIZE = 64;
+
   // -- Fields --
 
   protected ImageProcessorReader reader;
   protected String id;
   protected Cache cache;
 
-  private List<List<MethodEntry>> methodStacks;
+  /** Edits recorded for each slice, created as slices are first viewed. */
+  private final Map<Integer, List<MethodEntry>> methodStacks =
+    new HashMap<Integer, List<MethodEntry>>();
+
   private int currentSlice = -1;
   private RecordedImageProcessor currentProcessor;
 
+  /** Whether the current processor already has its slice's edits applied. */
+  private boolean currentEdited;
+
   private boolean colorize;
   private boolean merge;
   private boolean record;
@@ -75,6 +94,50 @@ public class BFVirtualStack extends VirtualStack {
 
   private float[] calibrationTable;
 
+  /** Caching strategy, limited by the heap budget for all caches. */
+  private BudgetedStrategy strategy;
+
+  /** Current position of the cache. */
+  private int[] cachePosition;
+
+  /** Off-heap store of planes read so far, or null if disabled. */
+  private volatile OffHeapPlaneStore planeStore;
+
+  /** Planes with their recorded edits applied, least recently used first. */
+  private final LinkedHashMap<EditKey, ImageProcessor> editedPlanes =
+    new LinkedHashMap<EditKey, ImageProcessor>(16, 0.75f, true);
+
+  /** Accounts for the edited planes within the shared cache budget. */
+  private BudgetedStrategy editedStrategy;
+
+  /** Background reader of neighboring planes, or null if disabled. */
+  private volatile PlanePrefetcher prefetcher;
+
+  /** Additional readers for reading slices concurrently, or null if none. */
+  private ReaderPool readerPool;
+
+  /** Locks guarding the reading of slices, by slice index. */
+  private final Object[] stripes = new Object[LOCK_STRIPES];
+
+  /** Source of the cache's planes. */
+  private PrefetchingSource source;
+
+  /** Template from which slice labels are generated, or null if none. */
+  private SliceLabelTemplate labelTemplate;
+
+  /** Recently generated slice labels, least recently used first. */
+  private final LinkedHashMap<Integer, String> labels =
+    new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, String> e) {
+        return size() > LABEL_CACHE_SIZE;
+      }
+    };
+
+  /** Slice labels set explicitly, overriding the generated ones. */
+  private final Map<Integer, String> customLabels =
+    new HashMap<Integer, String>();
+
   // -- Static utility methods --
 
   protected static int getWidth(IFormatReader r, String path, int series)
@@ -121,14 +184,46 @@ public class BFVirtualStack extends VirtualStack {
     System.arraycopy(subC, 0, len, 0, subC.length);
     len[len.length - 2] = r.getSizeZ();
     len[len.length - 1] = r.getSizeT();
-    CacheStrategy strategy = new CrosshairStrategy(len);
+    // NB: ImageJ stores 32-bit and 64-bit data as floats.
+    final int bpp =
+      Math.min(4, FormatTools.getBytesPerPixel(r.getPixelType()));
+    final long planeBytes = (long) r.getSizeX() * r.getSizeY() * bpp;
+    strategy = new BudgetedStrategy(len, planeBytes);
+    strategy.setTrimmer(new Runnable() {
+      @Override
+      public void run() {
+        trimCache();
+      }
+    });
+    CacheBudget.register(strategy);
+    editedStrategy = new BudgetedStrategy(len, planeBytes);
+    editedStrategy.setTrimmer(new Runnable() {
+      @Override
+      public void run() {
+        trimEditedPlanes(1);
+      }
+    });
+    CacheBudget.register(editedStrategy);
+
+    final int offHeapSize = LociPrefs.getOffHeapCacheSize();
+    if (offHeapSize > 0) {
+      try {
+        final OffHeapPlaneStore store = new OffHeapPlaneStore(r.getSizeX(),
+          r.getSizeY(), bpp, offHeapSize * 1048576L,
+          LociPrefs.isOffHeapCacheMapped());
+        if (store.isEnabled()) planeStore = store;
+        else store.close();
+      }
+      catch (IOException exc) {
+        BF.warn(false, "Cannot create off-heap plane store: " +
+          exc.getMessage());
+      }
+    }
 
-    cache = new Cache(strategy, new ImageProcessorSource(r), true);
+    source = new PrefetchingSource(r);
+    cache = new Cache(strategy, source, true);
+    for (int i=0; i<stripes.length; i++) stripes[i] = new Object();
 
-    methodStacks = new ArrayList<List<MethodEntry>>();
-    for (int i=0; i<r.getImageCount(); i++) {
-      methodStacks.add(new ArrayList<MethodEntry>());
-    }
   }
 
   // -- BFVirtualStack API methods --
@@ -139,44 +234,250 @@ public class BFVirtualStack extends VirtualStack {
 
   public Cache getCache() { return cache; }
 
-  public RecordedImageProcessor getRecordedProcessor() {
+  public synchronized RecordedImageProcessor getRecordedProcessor() {
     return currentProcessor;
   }
 
-  public List<MethodEntry> getMethodStack() {
-    if (currentSlice >= 0) return methodStacks.get(currentSlice);
+  public synchronized List<MethodEntry> getMethodStack() {
+    if (currentSlice >= 0) return getMethodStack(currentSlice);
     return null;
   }
 
+  /**
+   * Replays the recorded edits of the current slice upon its processor.
+   * The result is kept, so that returning to the slice with the same edits
+   * does not require reading and editing the plane again.
+   */
+  public synchronized void applyMethodStack() {
+    if (currentSlice < 0 || currentProcessor == null || currentEdited) return;
+    final List<MethodEntry> methods = getMethodStack(currentSlice);
+    if (methods.isEmpty()) return;
+    currentProcessor.applyMethodStack(methods);
+    currentEdited = true;
+    if (!merge) storeEditedPlane(currentSlice, currentProcessor, methods);
+  }
+
   public void setPlaneIndexes(int[] planeIndexes) {
     this.planeIndexes = planeIndexes;
+    synchronized (labels) {
+      labels.clear();
+    }
+  }
+
+  /**
+   * Generates slice labels on demand from the given template, rather than
+   * from labels added via {@link #addSlice(String)}, so that no label need
+   * be built until its slice is shown.
+   */
+  public void setSliceLabelTemplate(SliceLabelTemplate template) {
+    synchronized (labels) {
+      labelTemplate = template;
+      labels.clear();
+    }
+  }
+
+  /**
+   * Enables reading of different slices by several threads at once, each
+   * using a reader stack from the given pool rather than the stack's own
+   * reader. Also enables reading ahead of the planes surrounding the current
+   * plane on background threads, according to the read-ahead depths
+   * configured in {@link LociPrefs}; while reading ahead, the cache itself
+   * retains only the current plane, and the prefetcher retains the planes
+   * surrounding it, including those already shown.
+   */
+  public synchronized void setReaderPool(ReaderPool pool) {
+    if (prefetcher != null) prefetcher.close();
+    prefetcher = null;
+    readerPool = merge ? null : pool;
+    if (readerPool == null) return;
+
+    final int[] depths = new int[len.length];
+    depths[0] = LociPrefs.getPrefetchDepthC();
+    depths[len.length - 2] = LociPrefs.getPrefetchDepthZ();
+    depths[len.length - 1] = LociPrefs.getPrefetchDepthT();
+    final PlanePrefetcher p = new PlanePrefetcher(pool, series, len, depths,
+      strategy.getPlaneBytes());
+    if (!p.isEnabled()) {
+      p.close();
+      return;
+    }
+    prefetcher = p;
+
+    // NB: Avoid reading the neighboring planes on the calling thread.
+    for (int axis=0; axis<len.length; axis++) strategy.setRange(0, axis);
+  }
+
+  /**
+   * Reads the given slice directly from the reader, for conversion rather
+   * than display: the plane is neither cached nor recorded, does not become
+   * the current slice, and does not cause the surrounding planes to be read
+   * ahead. If a reader pool is set, several slices may be read this way
+   * at once.
+   *
+   * @param n Position of the slice, starting at 1.
+   * @return the slice, or null if it can only be obtained
+   *   via {@link #getProcessor(int)}, such as for edited or merged slices.
+   */
+  public ImageProcessor readSlice(int n) throws FormatException, IOException {
+    final int slice = n - 1;
+    final int sliceIndex;
+    final int channel;
+    final float[] table;
+    final ReaderPool pool;
+    synchronized (this) {
+      if (merge) return null;
+      final List<MethodEntry> methods = methodStacks.get(slice);
+      if (methods != null && !methods.isEmpty()) {
+        return getEditedPlane(slice, methods);
+      }
+      sliceIndex = planeIndexes == null ? slice : planeIndexes[slice];
+      reader.setSeries(series);
+      channel = reader.getZCTCoords(sliceIndex)[1];
+      table = calibrationTable;
+      pool = readerPool;
+    }
+
+    ImageProcessor ip = null;
+    if (pool == null) {
+      synchronized (this) {
+        reader.setSeries(series);
+        ip = reader.openProcessors(sliceIndex)[0];
+      }
+    }
+    else {
+      final ImageProcessorReader r = pool.acquire();
+      if (r == null) return null;
+      try {
+        r.setSeries(series);
+        ip = r.openProcessors(sliceIndex)[0];
+      }
+      finally {
+        pool.release(r);
+      }
+    }
+
+    if (colorize) applyColorTable(ip, channel);
+    if (table != null) ip.setCalibrationTable(table);
+    return ip;
+  }
+
+  /**
+   * Stops reading ahead, and releases any cached planes,
+   * along with their share of the cache budget.
+   */
+  public synchronized void close() {
+    if (prefetcher != null) prefetcher.close();
+    prefetcher = null;
+    strategy.trim();
+    CacheBudget.unregister(strategy);
+    CacheBudget.unregister(editedStrategy);
+    editedPlanes.clear();
+    if (planeStore != null) planeStore.close();
+    planeStore = null;
   }
 
   // -- VirtualStack API methods --
 
   @Override
-  public synchronized ImageProcessor getProcessor(int n) {
+  public ImageProcessor getProcessor(int n) {
+    final ReaderPool pool;
+    synchronized (this) {
+      pool = readerPool;
+      if (pool == null) return readProcessor(n);
+    }
+    return readProcessor(n, pool);
+  }
+
+  @Override
+  public int getWidth() {
     reader.setSeries(series);
+    return reader.getSizeX();
+  }
 
-    // check cache first
-    if (currentSlice >= 0 && currentProcessor != null) {
-      List<MethodEntry> currentStack = currentProcessor.getMethodStack();
-      if (currentStack.size() > 1) {
-        methodStacks.get(currentSlice).addAll(currentStack);
+  @Override
+  public int getHeight() {
+    reader.setSeries(series);
+    return reader.getSizeY();
+  }
+
+  @Override
+  public String getSliceLabel(int n) {
+    synchronized (labels) {
+      if (labelTemplate == null) return super.getSliceLabel(n);
+      final Integer key = n;
+      String label = customLabels.get(key);
+      if (label == null) label = labels.get(key);
+      if (label == null) {
+        final int index = planeIndexes == null ? n - 1 : planeIndexes[n - 1];
+        label = labelTemplate.getLabel(index);
+        labels.put(key, label);
       }
+      return label;
     }
+  }
+
+  @Override
+  public void setSliceLabel(String label, int n) {
+    synchronized (labels) {
+      if (labelTemplate == null) super.setSliceLabel(label, n);
+      else customLabels.put(n, label);
+    }
+  }
+
+  @Override
+  public int getSize() {
+    if (reader.getCurrentFile() == null) return 0;
+    reader.setSeries(series);
+    if (merge) return new ChannelMerger(reader).getImageCount();
+    return planeIndexes == null ? reader.getImageCount() : planeIndexes.length;
+  }
+
+  // -- Helper methods --
+
+  /** Gets the edits recorded for the given slice. */
+  private List<MethodEntry> getMethodStack(int slice) {
+    List<MethodEntry> methods = methodStacks.get(slice);
+    if (methods == null) {
+      methods = new ArrayList<MethodEntry>();
+      methodStacks.put(slice, methods);
+    }
+    return methods;
+  }
+
+  /**
+   * Reads the given slice using this stack's own reader.
+   * Must be called while holding the stack's lock.
+   */
+  private ImageProcessor readProcessor(int n) {
+    reader.setSeries(series);
+
+    // check cache first
+    flushRecording();
     int sliceIndex = planeIndexes == null ? n - 1 : planeIndexes[n - 1];
     int[] pos = reader.getZCTCoords(sliceIndex);
     if (merge) pos = new ChannelMerger(reader).getZCTCoords(sliceIndex);
     int[] cachePos = FormatTools.rasterToPosition(len, sliceIndex);
     ImageProcessor ip = null;
 
-    try {
-      ip = (ImageProcessor) cache.getObject(cachePos);
-      cache.setCurrentPos(cachePos);
+    // reuse the result of a previous replay of this slice's edits
+    boolean edited = false;
+    if (!merge) {
+      ip = getEditedPlane(n - 1, getMethodStack(n - 1));
+      edited = ip != null;
     }
-    catch (CacheException exc) {
-      exc.printStackTrace();
+
+    // start reading the surrounding planes while this one is read
+    if (prefetcher != null) prefetcher.prefetch(cachePos);
+
+    synchronized (cache) {
+      try {
+        if (ip == null) ip = (ImageProcessor) cache.getObject(cachePos);
+        cache.setCurrentPos(cachePos);
+        cachePosition = cachePos.clone();
+      }
+      catch (CacheException exc) {
+        exc.printStackTrace();
+      }
     }
 
     // cache missed
@@ -192,33 +493,17 @@ public class BFVirtualStack extends VirtualStack {
       exc.printStackTrace();
     }
 
-    if (colorize) {
-      // apply color table, if necessary
-      byte[] lut = new byte[256];
-      byte[] blank = new byte[256];
-      for (int i=0; i<lut.length; i++) {
-        lut[i] = (byte) i;
-        blank[i] = (byte) 0;
-      }
-
-      IndexColorModel model = null;
-      if (pos[1] < 3) {
-        model = new IndexColorModel(8, 256, pos[1] == 0 ? lut : blank,
-          pos[1] == 1 ? lut : blank, pos[1] == 2 ? lut : blank);
-      }
-      else model = new IndexColorModel(8, 256, lut, lut, lut);
-
-      if (ip != null) ip.setColorModel(model);
-    }
+    if (colorize) applyColorTable(ip, pos[1]);
     else if (merge) {
-      currentSlice = n - 1;
       ImageProcessor[] otherChannels =
         new ImageProcessor[reader.getSizeC() - 1];
       for (int i=0; i<otherChannels.length; i++) {
         int channel = i >= pos[1] ? i + 1 : i;
         try {
           cachePos[0] = channel;
-          otherChannels[i] = (ImageProcessor) cache.getObject(cachePos);
+          synchronized (cache) {
+            otherChannels[i] = (ImageProcessor) cache.getObject(cachePos);
+          }
         }
         catch (CacheException exc) {
           exc.printStackTrace();
@@ -236,51 +521,318 @@ public class BFVirtualStack extends VirtualStack {
           }
         }
       }
-      currentProcessor = new RecordedImageProcessor(ip, pos[1], otherChannels);
-      currentProcessor.setDoRecording(record);
-      if (calibrationTable == null) {
-        calibrationTable = currentProcessor.getChild().getCalibrationTable();
+      return setCurrent(n - 1,
+        new RecordedImageProcessor(ip, pos[1], otherChannels), false);
+    }
+
+    if (ip != null) {
+      return setCurrent(n - 1, new RecordedImageProcessor(ip), edited);
+    }
+
+    return null;
+  }
+
+  /**
+   * Reads the given slice using a reader stack from the given pool, so that
+   * other slices can be read by other threads at the same time.
+   */
+  private ImageProcessor readProcessor(int n, ReaderPool pool) {
+    final int slice = n - 1;
+    final int sliceIndex;
+    final int channel;
+    final PlanePrefetcher p;
+    ImageProcessor ip;
+    synchronized (this) {
+      flushRecording();
+      sliceIndex = planeIndexes == null ? slice : planeIndexes[slice];
+      reader.setSeries(series);
+      channel = reader.getZCTCoords(sliceIndex)[1];
+      // reuse the result of a previous replay of this slice's edits
+      ip = getEditedPlane(slice, getMethodStack(slice));
+      p = prefetcher;
+    }
+    final boolean edited = ip != null;
+    final int[] cachePos = FormatTools.rasterToPosition(len, sliceIndex);
+
+    // start reading the surrounding planes while this one is read
+    if (p != null) p.prefetch(cachePos);
+
+    if (ip == null) {
+      // NB: The plane is read outside of the cache's lock, so that other
+      // slices can be read meanwhile; the stripe lock only keeps the same
+      // slice from being read twice at once.
+      synchronized (stripes[sliceIndex % stripes.length]) {
+        ip = getCachedPlane(cachePos);
+        if (ip == null) {
+          ip = readPlane(pool, sliceIndex);
+          if (ip != null) cachePlane(sliceIndex, cachePos, ip);
+        }
       }
-      else {
-        currentProcessor.setCalibrationTable(calibrationTable);
+    }
+    if (ip == null) return null;
+
+    if (colorize) applyColorTable(ip, channel);
+    synchronized (this) {
+      return setCurrent(slice, new RecordedImageProcessor(ip), edited);
+    }
+  }
+
+  /**
+   * Adds the edits recorded on the current processor to the method stack
+   * of its slice. Must be called while holding the stack's lock.
+   */
+  private void flushRecording() {
+    if (currentSlice < 0 || currentProcessor == null) return;
+    List<MethodEntry> currentStack = currentProcessor.getMethodStack();
+    if (currentStack.size() > 1) {
+      getMethodStack(currentSlice).addAll(currentStack);
+    }
+    // NB: Another thread may flush again before the next slice is current.
+    currentSlice = -1;
+    currentProcessor = null;
+  }
+
+  /**
+   * Makes the given processor the current one.
+   * Must be called while holding the stack's lock.
+   *
+   * @return the processor's child, for display
+   */
+  private ImageProcessor setCurrent(int slice, RecordedImageProcessor proc,
+    boolean edited)
+  {
+    proc.setDoRecording(record);
+    if (calibrationTable == null) {
+      calibrationTable = proc.getChild().getCalibrationTable();
+    }
+    else {
+      proc.setCalibrationTable(calibrationTable);
+    }
+    currentSlice = slice;
+    currentProcessor = proc;
+    currentEdited = edited;
+    return proc.getChild();
+  }
+
+  /** Applies a color table for the given channel, if necessary. */
+  private void applyColorTable(ImageProcessor ip, int channel) {
+    byte[] lut = new byte[256];
+    byte[] blank = new byte[256];
+    for (int i=0; i<lut.length; i++) {
+      lut[i] = (byte) i;
+      blank[i] = (byte) 0;
+    }
+
+    IndexColorModel model = null;
+    if (channel < 3) {
+      model = new IndexColorModel(8, 256, channel == 0 ? lut : blank,
+        channel == 1 ? lut : blank, channel == 2 ? lut : blank);
+    }
+    else model = new IndexColorModel(8, 256, lut, lut, lut);
+
+    if (ip != null) ip.setColorModel(model);
+  }
+
+  /**
+   * Gets the plane at the given position if the cache already holds it,
+   * making it the cache's current position.
+   */
+  private ImageProcessor getCachedPlane(int[] cachePos) {
+    synchronized (cache) {
+      try {
+        if (!cache.isInCache(cachePos)) return null;
+        final ImageProcessor ip = (ImageProcessor) cache.getObject(cachePos);
+        cache.setCurrentPos(cachePos);
+        cachePosition = cachePos.clone();
+        return ip;
+      }
+      catch (CacheException exc) {
+        exc.printStackTrace();
       }
-      return currentProcessor.getChild();
     }
+    return null;
+  }
 
-    if (ip != null) {
-      currentSlice = n - 1;
-      currentProcessor = new RecordedImageProcessor(ip);
-      currentProcessor.setDoRecording(record);
-      if (calibrationTable == null) {
-        calibrationTable = currentProcessor.getChild().getCalibrationTable();
+  /** Hands the given plane to the cache, as its current position. */
+  private void cachePlane(int index, int[] cachePos, ImageProcessor ip) {
+    synchronized (cache) {
+      source.offer(index, ip);
+      try {
+        cache.getObject(cachePos);
+        cache.setCurrentPos(cachePos);
+        cachePosition = cachePos.clone();
+      }
+      catch (CacheException exc) {
+        exc.printStackTrace();
       }
-      else {
-        currentProcessor.setCalibrationTable(calibrationTable);
+      finally {
+        source.offer(-1, null);
       }
-      return currentProcessor.getChild();
     }
+  }
 
-    return null;
+  /**
+   * Reads the plane with the given index from the off-heap store, the planes
+   * read ahead or else a reader stack from the given pool.
+   */
+  private ImageProcessor readPlane(ReaderPool pool, int index) {
+    final OffHeapPlaneStore store = planeStore;
+    ImageProcessor ip = store == null ? null : store.get(index);
+    if (ip != null) return ip;
+    final PlanePrefetcher p = prefetcher;
+    if (p != null) ip = p.take(index);
+    if (ip == null) {
+      try {
+        final ImageProcessorReader r = pool.acquire();
+        if (r == null) return null;
+        try {
+          r.setSeries(series);
+          ip = r.openProcessors(index)[0];
+        }
+        finally {
+          pool.release(r);
+        }
+      }
+      catch (FormatException exc) {
+        exc.printStackTrace();
+      }
+      catch (IOException exc) {
+        exc.printStackTrace();
+      }
+    }
+    if (ip != null && store != null) store.put(index, ip);
+    return ip;
   }
 
-  @Override
-  public int getWidth() {
-    reader.setSeries(series);
-    return reader.getSizeX();
+  /**
+   * Gets a copy of the given slice with the given edits applied, if one was
+   * kept from a previous replay.
+   */
+  private ImageProcessor getEditedPlane(int slice, List<MethodEntry> methods) {
+    if (methods.isEmpty()) return null;
+    final ImageProcessor edited = editedPlanes.get(new EditKey(slice, methods));
+    if (edited == null) return null;
+    final ImageProcessor ip = edited.duplicate();
+    if (!(ip instanceof ByteProcessor)) {
+      ip.setMinAndMax(edited.getMin(), edited.getMax());
+    }
+    return ip;
   }
 
-  @Override
-  public int getHeight() {
-    reader.setSeries(series);
-    return reader.getSizeY();
+  /**
+   * Keeps a copy of the given processor, with the given edits applied,
+   * dropping the least recently used edited planes to stay within the room
+   * granted by the shared cache budget.
+   */
+  private void storeEditedPlane(int slice, RecordedImageProcessor proc,
+    List<MethodEntry> methods)
+  {
+    final ImageProcessor child = proc.getChild();
+    final ImageProcessor edited = child.duplicate();
+    if (!(edited instanceof ByteProcessor)) {
+      edited.setMinAndMax(child.getMin(), child.getMax());
+    }
+    editedPlanes.put(new EditKey(slice, methods), edited);
+    trimEditedPlanes(CacheBudget.request(editedStrategy, editedPlanes.size()));
   }
 
-  @Override
-  public int getSize() {
-    if (reader.getCurrentFile() == null) return 0;
-    reader.setSeries(series);
-    if (merge) return new ChannelMerger(reader).getImageCount();
-    return planeIndexes == null ? reader.getImageCount() : planeIndexes.length;
+  /** Drops the least recently used edited planes beyond the given count. */
+  private synchronized void trimEditedPlanes(int count) {
+    final Iterator<ImageProcessor> iter = editedPlanes.values().iterator();
+    while (editedPlanes.size() > count && iter.hasNext()) {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  /**
+   * Drops cached planes which no longer fit within this stack's share of the
+   * cache budget, by having the cache re-evaluate its current position.
+   */
+  private void trimCache() {
+    synchronized (cache) {
+      if (cachePosition == null) return;
+      try {
+        cache.setCurrentPos(cachePosition);
+      }
+      catch (CacheException exc) {
+        exc.printStackTrace();
+      }
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Identifies a slice together with the edits applied to it. */
+  private static class EditKey {
+    private final int slice;
+    private final String[] names;
+    private final Object[][] args;
+    private final int hash;
+
+    public EditKey(int slice, List<MethodEntry> methods) {
+      this.slice = slice;
+      // NB: Copy the edits, since more are recorded as the slice is edited.
+      names = new String[methods.size()];
+      args = new Object[methods.size()][];
+      for (int i=0; i<names.length; i++) {
+        final MethodEntry m = methods.get(i);
+        names[i] = m.name;
+        args[i] = m.args == null ? null : m.args.clone();
+      }
+      hash = 31 * (31 * slice + Arrays.hashCode(names)) +
+        Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof EditKey)) return false;
+      final EditKey k = (EditKey) o;
+      return slice == k.slice && hash == k.hash &&
+        Arrays.equals(names, k.names) && Arrays.deepEquals(args, k.args);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Cache source which takes planes read ahead or kept off-heap, when
+   * available, and otherwise reads them, keeping a copy off-heap.
+   */
+  private class PrefetchingSource extends ImageProcessorSource {
+
+    public PrefetchingSource(IFormatReader r) {
+      super(r);
+    }
+
+    /** Plane handed to the cache by {@link #cachePlane}, and its index. */
+    private ImageProcessor offered;
+    private int offeredIndex = -1;
+
+    public void offer(int index, ImageProcessor ip) {
+      offeredIndex = index;
+      offered = ip;
+    }
+
+    @Override
+    public Object getObject(int index) throws CacheException {
+      if (index == offeredIndex && offered != null) return offered;
+      final OffHeapPlaneStore store = planeStore;
+      if (store != null) {
+        final ImageProcessor ip = store.get(index);
+        if (ip != null) return ip;
+      }
+      ImageProcessor ip = null;
+      final PlanePrefetcher p = prefetcher;
+      if (p != null) ip = p.take(index);
+      if (ip == null) ip = (ImageProcessor) super.getObject(index);
+      if (store != null) store.put(index, ip);
+      return ip;
+    }
+
   }
 
 }
@@ -27,10 +27,19 @@
 
 package loci.plugins.util;
 
+import ij.Prefs;
+
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import loci.formats.cache.Cache;
 import loci.formats.gui.CacheComponent;
@@ -47,9 +56,32 @@ public class BrowserOptionsWindow extends JFrame {
 
     CacheComponent panel = new CacheComponent(cache, axes);
 
-    panel.setBorder(new EmptyBorder(15, 15, 15, 15));
-    panel.setMinimumSize(new Dimension(300, 500));
-    setContentPane(panel);
+    // memory budget shared by the caches of all virtual stacks
+    final int budget = (int) (CacheBudget.getBudget() / 1048576);
+    final JSpinner budgetSpin =
+      new JSpinner(new SpinnerNumberModel(budget, 1, Integer.MAX_VALUE, 64));
+    budgetSpin.setToolTipText(
+      "Memory shared by the caches of all open virtual stacks");
+    budgetSpin.addChangeListener(new ChangeListener() {
+      @Override
+      public void stateChanged(ChangeEvent e) {
+        final int mb = ((Number) budgetSpin.getValue()).intValue();
+        Prefs.set(LociPrefs.PREF_CACHE_BUDGET, mb);
+        CacheBudget.setBudget(mb * 1048576L);
+      }
+    });
+    JPanel budgetPanel = new JPanel(new BorderLayout(5, 0));
+    budgetPanel.add(new JLabel("Cache memory budget (MB): "),
+      BorderLayout.WEST);
+    budgetPanel.add(budgetSpin, BorderLayout.CENTER);
+    budgetPanel.setBorder(new EmptyBorder(10, 0, 0, 0));
+
+    JPanel pane = new JPanel(new BorderLayout());
+    pane.add(panel, BorderLayout.CENTER);
+    pane.add(budgetPanel, BorderLayout.SOUTH);
+    pane.setBorder(new EmptyBorder(15, 15, 15, 15));
+    pane.setMinimumSize(new Dimension(300, 500));
+    setContentPane(pane);
     setDefaultCloseOperation(DISPOSE_ON_CLOSE);
     pack();
   }
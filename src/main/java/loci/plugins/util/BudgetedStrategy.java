@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import java.util.Arrays;
+
+import loci.formats.cache.CacheException;
+import loci.formats.cache.CrosshairStrategy;
+
+/**
+ * Crosshair caching strategy which keeps only as many planes as the shared
+ * {@link CacheBudget} allows, dropping those of lowest priority first.
+ */
+public class BudgetedStrategy extends CrosshairStrategy {
+
+  // -- Fields --
+
+  /** Size of a single cached plane, in bytes. */
+  private final long planeBytes;
+
+  /** Action which makes the cache drop planes beyond its allotment. */
+  private Runnable trimmer;
+
+  /** Whether the cache is currently being cut back to its current plane. */
+  private boolean trimming;
+
+  /** When the cache was last used, as counted by {@link CacheBudget}. */
+  private long lastUsed;
+
+  // -- Constructor --
+
+  /**
+   * Creates a budgeted strategy.
+   *
+   * @param lengths Length of each axis.
+   * @param planeBytes Size of a single cached plane, in bytes.
+   */
+  public BudgetedStrategy(int[] lengths, long planeBytes) {
+    super(lengths);
+    this.planeBytes = planeBytes;
+  }
+
+  // -- BudgetedStrategy methods --
+
+  /** Gets the size of a single cached plane, in bytes. */
+  public long getPlaneBytes() { return planeBytes; }
+
+  /**
+   * Sets the action which makes the cache drop the planes that no longer
+   * appear in this strategy's load list; typically this resets the cache's
+   * current position.
+   */
+  public void setTrimmer(Runnable trimmer) { this.trimmer = trimmer; }
+
+  /** Gets when the cache was last used, as counted by {@link CacheBudget}. */
+  long getLastUsed() { return lastUsed; }
+
+  /** Sets when the cache was last used, as counted by {@link CacheBudget}. */
+  void setLastUsed(long lastUsed) { this.lastUsed = lastUsed; }
+
+  /** Cuts the cache back to its current plane. */
+  public void trim() {
+    final Runnable r = trimmer;
+    if (r == null) return;
+    synchronized (this) {
+      trimming = true;
+    }
+    try {
+      r.run();
+    }
+    finally {
+      synchronized (this) {
+        trimming = false;
+      }
+    }
+  }
+
+  // -- ICacheStrategy API methods --
+
+  @Override
+  public int[][] getLoadList(int[] pos) throws CacheException {
+    final int[][] loadList = super.getLoadList(pos);
+    final boolean trim;
+    synchronized (this) {
+      trim = trimming;
+    }
+    final int count =
+      trim ? 1 : CacheBudget.request(this, loadList.length);
+    if (count >= loadList.length) return loadList;
+    return Arrays.copyOf(loadList, count);
+  }
+
+}
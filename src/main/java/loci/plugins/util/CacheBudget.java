@@ -0,0 +1,172 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Heap budget shared by the plane caches of all open virtual stacks,
+ * including the planes kept with their recorded edits applied.
+ *
+ * Each cache asks for room for the planes its strategy would like to keep.
+ * When the budget is exhausted, caches that were used least recently are
+ * cut back to their current plane, on a background thread, to make room
+ * for the cache in use. See {@link BudgetedStrategy}.
+ */
+public final class CacheBudget {
+
+  // -- Static fields --
+
+  /** Budget for all caches together, in bytes. */
+  private static long budget = LociPrefs.getCacheBudget() * 1048576L;
+
+  /**
+   * Bytes currently allotted to each registered cache. Caches of stacks
+   * which were never closed are dropped once they are garbage collected.
+   */
+  private static final Map<BudgetedStrategy, Long> ALLOTTED =
+    new WeakHashMap<BudgetedStrategy, Long>();
+
+  /** Time stamp of the most recent request, for least recently used order. */
+  private static long clock;
+
+  /** Trims caches outside of the lock of the cache that triggered it. */
+  private static final ExecutorService TRIMMER =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "Bio-Formats-CacheBudget");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+  // -- Constructor --
+
+  private CacheBudget() { }
+
+  // -- Utility methods --
+
+  /** Gets the budget for all caches together, in bytes. */
+  public static synchronized long getBudget() { return budget; }
+
+  /**
+   * Sets the budget for all caches together, in bytes,
+   * trimming caches as needed to fit within it.
+   */
+  public static synchronized void setBudget(long bytes) {
+    budget = bytes;
+    makeRoom(null, 0);
+  }
+
+  /** Gets the number of bytes allotted to all caches together. */
+  public static synchronized long getAllotted() {
+    long total = 0;
+    for (long bytes : ALLOTTED.values()) total += bytes;
+    return total;
+  }
+
+  /** Starts accounting for the given cache. */
+  public static synchronized void register(BudgetedStrategy strategy) {
+    if (ALLOTTED.containsKey(strategy)) return;
+    strategy.setLastUsed(++clock);
+    ALLOTTED.put(strategy, 0L);
+  }
+
+  /** Stops accounting for the given cache, releasing its allotment. */
+  public static synchronized void unregister(BudgetedStrategy strategy) {
+    ALLOTTED.remove(strategy);
+  }
+
+  /**
+   * Requests room for the given number of planes in the given cache,
+   * marking it as the most recently used one.
+   *
+   * @return the number of planes granted; always at least one
+   */
+  static synchronized int request(BudgetedStrategy strategy, int count) {
+    if (!ALLOTTED.containsKey(strategy)) return count;
+    strategy.setLastUsed(++clock);
+
+    final long planeBytes = Math.max(1, strategy.getPlaneBytes());
+    final long wanted = planeBytes * count;
+    ALLOTTED.put(strategy, 0L);
+    makeRoom(strategy, wanted);
+
+    final long available = Math.max(0, budget - getAllotted());
+    final int granted =
+      (int) Math.max(1, Math.min(count, available / planeBytes));
+    ALLOTTED.put(strategy, planeBytes * granted);
+    return granted;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Cuts back the least recently used caches other than the given one,
+   * until the given number of bytes is available or no more can be freed.
+   */
+  private static void makeRoom(BudgetedStrategy keep, long wanted) {
+    long free = budget - getAllotted();
+    if (free >= wanted) return;
+
+    final List<BudgetedStrategy> caches =
+      new ArrayList<BudgetedStrategy>(ALLOTTED.keySet());
+    Collections.sort(caches, new Comparator<BudgetedStrategy>() {
+      @Override
+      public int compare(BudgetedStrategy s1, BudgetedStrategy s2) {
+        final long t1 = s1.getLastUsed(), t2 = s2.getLastUsed();
+        return t1 < t2 ? -1 : t1 > t2 ? 1 : 0;
+      }
+    });
+    for (final BudgetedStrategy victim : caches) {
+      if (free >= wanted) break;
+      if (victim == keep) continue;
+      final long allotted = ALLOTTED.get(victim);
+      final long minimum = victim.getPlaneBytes();
+      if (allotted <= minimum) continue;
+      ALLOTTED.put(victim, minimum);
+      free += allotted - minimum;
+      TRIMMER.execute(new Runnable() {
+        @Override
+        public void run() {
+          victim.trim();
+        }
+      });
+    }
+  }
+
+}
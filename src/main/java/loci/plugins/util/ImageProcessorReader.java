@@ -35,13 +35,17 @@ import ij.process.LUT;
 import ij.process.ShortProcessor;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import loci.common.DataTools;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
-import loci.formats.ImageTools;
+import loci.formats.ImageReader;
 import loci.formats.ReaderWrapper;
+import loci.formats.in.MinimalTiffReader;
 import loci.plugins.BF;
 
 /**
@@ -61,6 +65,18 @@ public class ImageProcessorReader extends ReaderWrapper {
     return new ImageProcessorReader(r);
   }
 
+  // -- Fields --
+
+  /** Color models already computed for the current series, by channel. */
+  private final Map<Integer, ColorModelEntry> colorModels =
+    new HashMap<Integer, ColorModelEntry>();
+
+  /** Core index of the series whose color models are cached. */
+  private int colorModelIndex = -1;
+
+  /** Whether the current file may have a color table per plane. */
+  private Boolean planeColorModels;
+
   // -- Constructors --
 
   /** Constructs an ImageProcessorReader around a new image reader. */
@@ -88,88 +104,8 @@ public class ImageProcessorReader extends ReaderWrapper {
   {
     // read byte array
     byte[] b = openThumbBytes(no);
-
-    int c = getRGBChannelCount();
-    int type = getPixelType();
-    int bpp = FormatTools.getBytesPerPixel(type);
-    boolean interleave = isInterleaved();
-
-    int w = getThumbSizeX();
-    int h = getThumbSizeY();
-
-    if (b.length != w * h * c * bpp && b.length != w * h * bpp) {
-      throw new FormatException("Invalid byte array length: " + b.length +
-        " (expected w=" + w + ", h=" + h + ", c=" + c + ", bpp=" + bpp + ")");
-    }
-
-    // create a color model for this plane (null means default)
-    final LUT cm = createColorModel();
-
-    // convert byte array to appropriate primitive array type
-    boolean isFloat = FormatTools.isFloatingPoint(type);
-    boolean isLittle = isLittleEndian();
-    boolean isSigned = FormatTools.isSigned(type);
-
-    // construct image processors
-    ImageProcessor[] ip = new ImageProcessor[c];
-    for (int i=0; i<c; i++) {
-      byte[] channel =
-        ImageTools.splitChannels(b, i, c, bpp, false, interleave);
-      Object pixels = DataTools.makeDataArray(channel, bpp, isFloat, isLittle);
-      if (pixels instanceof byte[]) {
-        byte[] q = (byte[]) pixels;
-        if (q.length != w * h) {
-          byte[] tmp = q;
-          q = new byte[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
-        if (isSigned) q = DataTools.makeSigned(q);
-
-        ip[i] = new ByteProcessor(w, h, q, null);
-        if (cm != null) ip[i].setColorModel(cm);
-      }
-      else if (pixels instanceof short[]) {
-        short[] q = (short[]) pixels;
-        if (q.length != w * h) {
-          short[] tmp = q;
-          q = new short[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
-        if (isSigned) q = DataTools.makeSigned(q);
-
-        ip[i] = new ShortProcessor(w, h, q, cm);
-      }
-      else if (pixels instanceof int[]) {
-        int[] q = (int[]) pixels;
-        if (q.length != w * h) {
-          int[] tmp = q;
-          q = new int[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
-
-        ip[i] = new FloatProcessor(w, h, q);
-      }
-      else if (pixels instanceof float[]) {
-        float[] q = (float[]) pixels;
-        if (q.length != w * h) {
-          float[] tmp = q;
-          q = new float[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
-        ip[i] = new FloatProcessor(w, h, q, null);
-      }
-      else if (pixels instanceof double[]) {
-        double[] q = (double[]) pixels;
-        if (q.length != w * h) {
-          double[] tmp = q;
-          q = new double[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
-        ip[i] = new FloatProcessor(w, h, q);
-      }
-    }
-
-    return ip;
+    return createProcessors(no, b, b.length, getThumbSizeX(), getThumbSizeY(),
+      new Object[getRGBChannelCount()]);
   }
 
   /**
@@ -184,110 +120,234 @@ public class ImageProcessorReader extends ReaderWrapper {
   {
     // read byte array
     byte[] b = openBytes(no, x, y, w, h);
+    return createProcessors(no, b, b.length, w, h,
+      new Object[getRGBChannelCount()]);
+  }
+
+  /**
+   * Returns an array of ImageProcessors that represent the given slice,
+   * reusing the given arrays rather than allocating new ones where possible.
+   * There is one ImageProcessor per RGB channel;
+   * i.e., length of returned array == getRGBChannelCount().
+   *
+   * Pixels are stored as bytes for 8-bit data, shorts for 16-bit data and
+   * floats otherwise, matching the type of the returned processors. Each
+   * element of the pixels array which is null, or not of the right type and
+   * length, is replaced with a newly allocated array, so that the same
+   * arrays can be passed again to read the next plane. Note that the returned
+   * processors are backed by those arrays.
+   *
+   * @param no Position of image plane.
+   * @param buf Buffer for the raw plane bytes, or null to allocate one.
+   * @param pixels Destination pixel arrays, one per RGB channel.
+   */
+  public ImageProcessor[] openProcessors(int no, byte[] buf, Object[] pixels,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    final int c = getRGBChannelCount();
+    if (pixels == null || pixels.length < c) {
+      throw new IllegalArgumentException("Expected " + c + " pixel arrays");
+    }
+    final int len = FormatTools.getPlaneSize(this, w, h);
+    if (buf == null || buf.length < len) buf = new byte[len];
+    openBytes(no, buf, x, y, w, h);
+    return createProcessors(no, buf, len, w, h, pixels);
+  }
 
+  // -- IFormatReader methods --
+
+  @Override
+  public Class<?> getNativeDataType() {
+    return ImageProcessor[].class;
+  }
+
+  @Override
+  public Object openPlane(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openProcessors(no, x, y, w, h);
+  }
+
+  @Override
+  public void setId(String id) throws FormatException, IOException {
+    resetColorModels();
+    super.setId(id);
+  }
+
+  @Override
+  public void close(boolean fileOnly) throws IOException {
+    resetColorModels();
+    super.close(fileOnly);
+  }
+
+  @Override
+  public void close() throws IOException {
+    resetColorModels();
+    super.close();
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Converts the given raw plane bytes into one image processor per RGB
+   * channel, decoding byte order, channel interleaving and signedness
+   * in a single pass over the data.
+   */
+  private ImageProcessor[] createProcessors(int no, byte[] b, int len,
+    int w, int h, Object[] pixels) throws FormatException, IOException
+  {
     int c = getRGBChannelCount();
     int type = getPixelType();
     int bpp = FormatTools.getBytesPerPixel(type);
     boolean interleave = isInterleaved();
 
-    if (b.length != w * h * c * bpp && b.length != w * h * bpp) {
-      throw new FormatException("Invalid byte array length: " + b.length +
+    if (len != w * h * c * bpp && len != w * h * bpp) {
+      throw new FormatException("Invalid byte array length: " + len +
         " (expected w=" + w + ", h=" + h + ", c=" + c + ", bpp=" + bpp + ")");
     }
 
     // create a color model for this plane (null means default)
-    final LUT cm = createColorModel();
+    final LUT cm = getColorModel(no);
 
-    // convert byte array to appropriate primitive array type
     boolean isFloat = FormatTools.isFloatingPoint(type);
     boolean isLittle = isLittleEndian();
     boolean isSigned = FormatTools.isSigned(type);
 
+    // NB: If the plane holds fewer samples than expected, the remaining
+    // pixels of each channel are left as zero (before sign adjustment).
+    final int size = w * h;
+    final int samples = Math.min(size, len / (bpp * c));
+
     // construct image processors
     ImageProcessor[] ip = new ImageProcessor[c];
     for (int i=0; i<c; i++) {
-      byte[] channel =
-        ImageTools.splitChannels(b, i, c, bpp, false, interleave);
-      Object pixels = DataTools.makeDataArray(channel, bpp, isFloat, isLittle);
-      if (pixels instanceof byte[]) {
-        byte[] q = (byte[]) pixels;
-        if (q.length != w * h) {
-          byte[] tmp = q;
-          q = new byte[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
+      // byte offset of first sample, and distance between samples
+      final int offset = interleave ? i * bpp : i * samples * bpp;
+      final int stride = interleave ? c * bpp : bpp;
+
+      if (bpp == 1) {
+        final byte[] q = pixels[i] instanceof byte[] &&
+          ((byte[]) pixels[i]).length == size ?
+          (byte[]) pixels[i] : new byte[size];
+        final int shift = isSigned ? 128 : 0;
+        for (int j=0, o=offset; j<samples; j++, o+=stride) {
+          q[j] = (byte) (b[o] + shift);
         }
-        if (isSigned) q = DataTools.makeSigned(q);
+        for (int j=samples; j<size; j++) q[j] = (byte) shift;
+        pixels[i] = q;
 
         ip[i] = new ByteProcessor(w, h, q, null);
         if (cm != null) ip[i].setColorModel(cm);
       }
-      else if (pixels instanceof short[]) {
-        short[] q = (short[]) pixels;
-        if (q.length != w * h) {
-          short[] tmp = q;
-          q = new short[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
+      else if (bpp == 2) {
+        final short[] q = pixels[i] instanceof short[] &&
+          ((short[]) pixels[i]).length == size ?
+          (short[]) pixels[i] : new short[size];
+        final int shift = isSigned ? 32768 : 0;
+        for (int j=0, o=offset; j<samples; j++, o+=stride) {
+          final int v = isLittle ?
+            (b[o] & 0xff) | (b[o + 1] << 8) :
+            (b[o] << 8) | (b[o + 1] & 0xff);
+          q[j] = (short) (v + shift);
         }
-        if (isSigned) q = DataTools.makeSigned(q);
+        for (int j=samples; j<size; j++) q[j] = (short) shift;
+        pixels[i] = q;
 
         ip[i] = new ShortProcessor(w, h, q, cm);
       }
-      else if (pixels instanceof int[]) {
-        int[] q = (int[]) pixels;
-        if (q.length != w * h) {
-          int[] tmp = q;
-          q = new int[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
+      else {
+        final float[] q = pixels[i] instanceof float[] &&
+          ((float[]) pixels[i]).length == size ?
+          (float[]) pixels[i] : new float[size];
+        for (int j=0, o=offset; j<samples; j++, o+=stride) {
+          if (bpp == 4) {
+            final int v = DataTools.bytesToInt(b, o, 4, isLittle);
+            q[j] = isFloat ? Float.intBitsToFloat(v) : v;
+          }
+          else {
+            final long v = DataTools.bytesToLong(b, o, 8, isLittle);
+            q[j] = (float) (isFloat ? Double.longBitsToDouble(v) : v);
+          }
         }
+        for (int j=samples; j<size; j++) q[j] = 0;
+        pixels[i] = q;
 
-        ip[i] = new FloatProcessor(w, h, q);
-      }
-      else if (pixels instanceof float[]) {
-        float[] q = (float[]) pixels;
-        if (q.length != w * h) {
-          float[] tmp = q;
-          q = new float[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
         ip[i] = new FloatProcessor(w, h, q, null);
       }
-      else if (pixels instanceof double[]) {
-        double[] q = (double[]) pixels;
-        if (q.length != w * h) {
-          double[] tmp = q;
-          q = new double[w * h];
-          System.arraycopy(tmp, 0, q, 0, Math.min(q.length, tmp.length));
-        }
-        ip[i] = new FloatProcessor(w, h, q);
-      }
     }
 
     return ip;
   }
 
-  // -- IFormatReader methods --
+  /**
+   * Gets the color model for the given plane. Color models are computed once
+   * per channel of the current series, except for formats which may have a
+   * color table per plane, whose tables are checked again for each plane.
+   * A copy is returned, so that callers may modify it.
+   */
+  private LUT getColorModel(int no) throws FormatException, IOException {
+    if (getCoreIndex() != colorModelIndex) {
+      colorModels.clear();
+      colorModelIndex = getCoreIndex();
+    }
+    if (planeColorModels == null) {
+      planeColorModels = hasPlaneColorTables(getReader());
+    }
+    final Integer c = getZCTCoords(no)[1];
+    ColorModelEntry entry = colorModels.get(c);
+    if (entry != null && !planeColorModels) return copy(entry.model);
+
+    // NB: The tables reflect the most recently opened plane.
+    final byte[][] byteTable = get8BitLookupTable();
+    final short[][] shortTable =
+      byteTable == null ? get16BitLookupTable() : null;
+    // NB: Readers build their tables anew or reuse the same arrays, so
+    // tables are compared by a hash of their contents, not by reference.
+    final int hash = Arrays.deepHashCode(
+      byteTable == null ? shortTable : byteTable);
+    if (entry != null && entry.hash == hash) return copy(entry.model);
+    entry = new ColorModelEntry();
+    entry.hash = hash;
+    entry.model = createColorModel(byteTable, shortTable);
+    colorModels.put(c, entry);
+    return copy(entry.model);
+  }
 
-  @Override
-  public Class<?> getNativeDataType() {
-    return ImageProcessor[].class;
+  private void resetColorModels() {
+    colorModels.clear();
+    colorModelIndex = -1;
+    planeColorModels = null;
   }
 
-  @Override
-  public Object openPlane(int no, int x, int y, int w, int h)
-    throws FormatException, IOException
-  {
-    return openProcessors(no, x, y, w, h);
+  private static LUT copy(LUT model) {
+    return model == null ? null : (LUT) model.clone();
   }
 
-  // -- Helper methods --
+  /**
+   * Checks whether the given reader is known to read files which may have
+   * a color table per plane, as TIFF files may have one per IFD.
+   */
+  private static boolean hasPlaneColorTables(IFormatReader r) {
+    while (r != null) {
+      if (r instanceof MinimalTiffReader) return true;
+      if (r instanceof ImageReader) r = ((ImageReader) r).getReader();
+      else if (r instanceof ReaderWrapper) r = ((ReaderWrapper) r).getReader();
+      else {
+        // e.g., a FileStitcher, whose files are all of the same format
+        final IFormatReader[] readers = r.getUnderlyingReaders();
+        r = readers == null || readers.length == 0 ? null : readers[0];
+      }
+    }
+    return false;
+  }
 
-  private LUT createColorModel() throws FormatException, IOException {
+  private LUT createColorModel(byte[][] byteTable, short[][] shortTable) {
     // NB: If a color table is present, we might as well use it,
     // regardless of the value of isIndexed.
     //if (!isIndexed()) return null;
 
-    byte[][] byteTable = get8BitLookupTable();
-    if (byteTable == null) byteTable = convertTo8Bit(get16BitLookupTable());
+    if (byteTable == null) byteTable = convertTo8Bit(shortTable);
     if (byteTable == null || byteTable.length == 0) return null;
 
     // extract red, green and blue elements
@@ -379,4 +439,12 @@ public class ImageProcessorReader extends ReaderWrapper {
     return byteTable;
   }
 
+  // -- Helper classes --
+
+  /** A computed color model, and a hash of the table it was computed from. */
+  private static class ColorModelEntry {
+    private int hash;
+    private LUT model;
+  }
+
 }
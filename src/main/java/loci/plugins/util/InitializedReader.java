@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import java.io.IOException;
+
+import loci.common.Location;
+import loci.formats.FilePattern;
+import loci.formats.FileStitcher;
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ReaderWrapper;
+
+/**
+ * A reader wrapper which does not initialize the wrapped reader again when
+ * it is already initialized on the requested file, so that the wrappers
+ * stacked above an already parsed reader can be initialized cheaply.
+ */
+public class InitializedReader extends ReaderWrapper {
+
+  // -- Constructor --
+
+  public InitializedReader(IFormatReader r) {
+    super(r);
+  }
+
+  // -- IFormatHandler API methods --
+
+  @Override
+  public void setId(String id) throws FormatException, IOException {
+    // NB: Some readers, such as FileStitcher, parse the file again on every
+    // call to setId, even if they are already initialized on the same file.
+    if (isInitialized(id)) return;
+    super.setId(id);
+  }
+
+  // -- Helper methods --
+
+  /** Whether the wrapped reader is already initialized on the given file. */
+  private boolean isInitialized(String id) {
+    final IFormatReader r = getReader();
+    final String currentId = r.getCurrentFile();
+    if (currentId == null || id == null) return false;
+    if (currentId.equals(id)) return true;
+    if (r instanceof FileStitcher) {
+      // a stitcher is also initialized on the pattern it has found
+      final FilePattern fp = ((FileStitcher) r).getFilePattern();
+      if (fp != null && id.equals(fp.getPattern())) return true;
+    }
+    return new Location(currentId).getAbsolutePath().equals(
+      new Location(id).getAbsolutePath());
+  }
+
+}
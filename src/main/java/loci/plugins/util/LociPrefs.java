@@ -29,6 +29,8 @@ package loci.plugins.util;
 
 import ij.Prefs;
 
+import java.io.File;
+
 import loci.formats.ClassList;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
@@ -73,6 +75,26 @@ public final class LociPrefs {
   public static final String PREF_SLICE_LABEL_BASE_INDEX = "bioformats.sliceLabelBaseIndex";
   public static final String PREF_CELLSENS_FAIL =
     "bioformats.cellsens.fail_on_missing_ets";
+  public static final String PREF_IMPORT_THREADS = "bioformats.importThreads";
+  public static final String PREF_EXPORT_THREADS = "bioformats.exportThreads";
+  public static final String PREF_PREFETCH_DEPTH_C = "bioformats.prefetch.c";
+  public static final String PREF_PREFETCH_DEPTH_Z = "bioformats.prefetch.z";
+  public static final String PREF_PREFETCH_DEPTH_T = "bioformats.prefetch.t";
+  public static final String PREF_CACHE_BUDGET = "bioformats.cacheBudget";
+  public static final String PREF_OFF_HEAP_CACHE = "bioformats.offHeapCache";
+  public static final String PREF_OFF_HEAP_CACHE_MAPPED =
+    "bioformats.offHeapCache.mapped";
+  public static final String PREF_MEMO_CACHE = "bioformats.memoCache";
+  public static final String PREF_MEMO_CACHE_DIR = "bioformats.memoCache.dir";
+  public static final String PREF_MEMO_CACHE_SIZE = "bioformats.memoCache.size";
+  public static final String PREF_MEMO_CACHE_AGE = "bioformats.memoCache.age";
+  public static final String PREF_STATS_CACHE = "bioformats.statsCache";
+  public static final String PREF_STATS_CACHE_DIR = "bioformats.statsCache.dir";
+  public static final String PREF_STATS_SAMPLING = "bioformats.statsSampling";
+  public static final String PREF_STATS_SAMPLING_XY =
+    "bioformats.statsSampling.xy";
+  public static final String PREF_ADMISSION_LIMIT = "bioformats.admissionLimit";
+  public static final String PREF_TILED_IMPORT = "bioformats.tiledImport";
 
   // -- Constructor --
 
@@ -210,6 +232,189 @@ public final class LociPrefs {
     return Prefs.get(PREF_CELLSENS_FAIL, CellSensReader.FAIL_ON_MISSING_DEFAULT);
   }
 
+  /**
+   * Gets the number of threads to use when reading image planes during
+   * import. A value of 1 (the default) reads planes serially; a value
+   * less than 1 uses one thread per available processor.
+   */
+  public static int getImportThreads() {
+    int threads = getInt(PREF_IMPORT_THREADS, 1);
+    if (threads < 1) threads = Runtime.getRuntime().availableProcessors();
+    return threads;
+  }
+
+  /**
+   * Gets the number of threads to use when converting image planes during
+   * export. A value of 1 (the default) converts each plane just before it
+   * is written; a value less than 1 uses one thread per available processor.
+   */
+  public static int getExportThreads() {
+    int threads = getInt(PREF_EXPORT_THREADS, 1);
+    if (threads < 1) threads = Runtime.getRuntime().availableProcessors();
+    return threads;
+  }
+
+  /**
+   * Gets the number of planes on either side of the current plane along the
+   * channel axis which virtual stacks read ahead in the background.
+   * The default of 0 disables read-ahead along that axis.
+   */
+  public static int getPrefetchDepthC() {
+    return Math.max(0, getInt(PREF_PREFETCH_DEPTH_C, 0));
+  }
+
+  /** @see #getPrefetchDepthC() */
+  public static int getPrefetchDepthZ() {
+    return Math.max(0, getInt(PREF_PREFETCH_DEPTH_Z, 0));
+  }
+
+  /** @see #getPrefetchDepthC() */
+  public static int getPrefetchDepthT() {
+    return Math.max(0, getInt(PREF_PREFETCH_DEPTH_T, 0));
+  }
+
+  /**
+   * Gets the amount of memory, in megabytes, which the plane caches of all
+   * open virtual stacks may use together. Defaults to a quarter of the
+   * maximum heap size.
+   */
+  public static int getCacheBudget() {
+    final long maxMemory = Runtime.getRuntime().maxMemory() / 1048576;
+    final int defaultBudget = (int) Math.min(Integer.MAX_VALUE, maxMemory / 4);
+    return Math.max(1, getInt(PREF_CACHE_BUDGET, defaultBudget));
+  }
+
+  /**
+   * Gets the amount of memory, in megabytes, outside of the Java heap which
+   * each virtual stack may use to keep recently read planes. The default of
+   * 0 disables the off-heap plane store.
+   */
+  public static int getOffHeapCacheSize() {
+    return Math.max(0, getInt(PREF_OFF_HEAP_CACHE, 0));
+  }
+
+  /**
+   * Gets whether the off-heap plane store keeps planes in a memory-mapped
+   * scratch file on local disk, rather than in direct memory.
+   */
+  public static boolean isOffHeapCacheMapped() {
+    return Prefs.get(PREF_OFF_HEAP_CACHE_MAPPED, false);
+  }
+
+  /**
+   * Gets whether initialized reader state is kept in a persistent on-disk
+   * cache, so that datasets opened again need not be parsed again.
+   */
+  public static boolean isMemoCacheEnabled() {
+    return Prefs.get(PREF_MEMO_CACHE, false);
+  }
+
+  /**
+   * Gets the directory of the persistent reader state cache. Defaults to
+   * a folder in the user's home directory.
+   */
+  public static File getMemoCacheDirectory() {
+    final String dir = Prefs.get(PREF_MEMO_CACHE_DIR, null);
+    if (dir != null && dir.trim().length() > 0) return new File(dir);
+    return new File(System.getProperty("user.home"), ".bioformats_memo");
+  }
+
+  /**
+   * Gets the maximum total size, in megabytes, of the persistent reader
+   * state cache. Defaults to 1024.
+   */
+  public static int getMemoCacheSize() {
+    return Math.max(1, getInt(PREF_MEMO_CACHE_SIZE, 1024));
+  }
+
+  /**
+   * Gets the number of days after their last use at which entries of the
+   * persistent reader state cache expire. Defaults to 30; a value less than
+   * 1 keeps entries regardless of age.
+   */
+  public static int getMemoCacheAge() {
+    return getInt(PREF_MEMO_CACHE_AGE, 30);
+  }
+
+  /**
+   * Gets whether per-channel minima and maxima computed during import are
+   * kept in a persistent on-disk cache, for reuse by later imports.
+   */
+  public static boolean isStatisticsCacheEnabled() {
+    return Prefs.get(PREF_STATS_CACHE, false);
+  }
+
+  /**
+   * Gets the directory of the persistent channel statistics cache.
+   * Defaults to a folder in the user's home directory.
+   */
+  public static File getStatisticsCacheDirectory() {
+    final String dir = Prefs.get(PREF_STATS_CACHE_DIR, null);
+    if (dir != null && dir.trim().length() > 0) return new File(dir);
+    return new File(System.getProperty("user.home"), ".bioformats_stats");
+  }
+
+  /**
+   * Gets the interval between the planes of each channel read to estimate
+   * channel minima and maxima, when their exact values are unknown. The
+   * default of 0 disables such estimates.
+   */
+  public static int getStatisticsSampling() {
+    return Math.max(0, getInt(PREF_STATS_SAMPLING, 0));
+  }
+
+  /**
+   * Gets the interval between the pixels of each sampled row and column
+   * used to estimate channel minima and maxima. Defaults to 1.
+   */
+  public static int getStatisticsSamplingXY() {
+    return Math.max(1, getInt(PREF_STATS_SAMPLING_XY, 1));
+  }
+
+  /**
+   * Gets whether, when importing fewer planes than there are import threads,
+   * each plane is split into the reader's optimal tiles so that these can be
+   * read concurrently. Enabled by default.
+   */
+  public static boolean isTiledImport() {
+    return Prefs.get(PREF_TILED_IMPORT, true);
+  }
+
+  /**
+   * Gets the percentage of the maximum heap size which an import may be
+   * projected to use before it is opened as a virtual stack instead.
+   * The default of 0 disables this check.
+   */
+  public static int getAdmissionLimit() {
+    return Math.max(0, getInt(PREF_ADMISSION_LIMIT, 0));
+  }
+
+  /**
+   * Gets a description of the configuration applied by
+   * {@link #makeImageReader()}, which differs whenever readers created by it
+   * might parse the same file differently.
+   */
+  public static String getReaderConfiguration() {
+    final StringBuilder sb = new StringBuilder();
+    Class<? extends IFormatReader>[] c =
+      ImageReader.getDefaultReaderClasses().getClasses();
+    for (int i=0; i<c.length; i++) {
+      if (!isReaderEnabled(c[i])) sb.append("-" + c[i].getName() + ";");
+    }
+    sb.append("cziAutostitch=" + allowCZIAutostitch() + ";");
+    sb.append("cziAttachments=" + includeCZIAttachments() + ";");
+    sb.append("nd2Chunkmap=" + useND2Chunkmap() + ";");
+    sb.append("nd2Nikon=" + isND2Nikon() + ";");
+    sb.append("lifPhysicalSize=" +
+      isLeicaLIFPhysicalSizeBackwardsCompatible() + ";");
+    sb.append("cellsensFail=" + isCellsensFailOnMissing() + ";");
+    sb.append("pictQTJava=" + isPictQTJava() + ";");
+    sb.append("qtQTJava=" + isQTQTJava() + ";");
+    sb.append("sdtIntensity=" + isSDTIntensity() + ";");
+    sb.append("tiffImageIO=" + isTiffImageIO() + ";");
+    return sb.toString();
+  }
+
   // -- Helper methods --
 
   private static boolean getPref(String pref,
@@ -221,4 +426,13 @@ public final class LociPrefs {
     return Prefs.get(key, defaultValue);
   }
 
+  /**
+   * Gets an integer preference. NB: {@link Prefs#getInt} looks up the key
+   * without the prefix which {@link Prefs#set} adds, so it does not find
+   * values stored that way.
+   */
+  private static int getInt(String key, int defaultValue) {
+    return (int) Prefs.get(key, (double) defaultValue);
+  }
+
 }
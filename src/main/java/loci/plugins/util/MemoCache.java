@@ -0,0 +1,274 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.Memoizer;
+import loci.plugins.BF;
+
+/**
+ * Persistent on-disk cache of initialized reader state, configured in
+ * {@link LociPrefs}.
+ *
+ * Each entry is a directory in which a {@link Memoizer} keeps the state of
+ * one dataset. Entries are keyed by the dataset's path, size and
+ * modification time, together with the reader configuration, so that a
+ * change to any of them leads to a new entry. Entries are evicted once they
+ * exceed the configured age, and least recently used first once the cache
+ * exceeds its configured size; since this requires sizing the whole cache,
+ * it is done on a background thread, at most once per eviction interval.
+ */
+public final class MemoCache {
+
+  // -- Constants --
+
+  /** Minimum initialization time, in ms, for state to be worth caching. */
+  public static final long MINIMUM_ELAPSED = 100;
+
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  /** Minimum time between evictions, in ms. */
+  private static final long EVICTION_INTERVAL = 10 * 60 * 1000;
+
+  // -- Static fields --
+
+  /** Keeps evictions from overlapping, without blocking lookups. */
+  private static final Object EVICTION_LOCK = new Object();
+
+  /** Time of the most recently scheduled eviction. */
+  private static long lastEviction;
+
+  /** Evicts entries without delaying the initialization of readers. */
+  private static final ExecutorService EVICTOR =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "Bio-Formats-MemoCache");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+  // -- Constructor --
+
+  private MemoCache() { }
+
+  // -- Utility methods --
+
+  /**
+   * Wraps the given reader so that it restores its state from the cache
+   * when initialized on the given file, or saves it there otherwise.
+   *
+   * @param r Reader to wrap, not yet initialized.
+   * @param id File on which the reader is about to be initialized.
+   * @param config Further configuration affecting how the file is parsed.
+   * @return the wrapped reader, or the given one if the cache is disabled
+   *   or the file is not a local file
+   */
+  public static IFormatReader wrap(IFormatReader r, String id,
+    String config)
+  {
+    final File dir = getDirectory(id, config);
+    return dir == null ? r : new Memoizer(r, MINIMUM_ELAPSED, dir);
+  }
+
+  /**
+   * Wraps the given reader so that, each time it is initialized, it
+   * restores its state from the cache entry of that file, or saves it
+   * there. Unlike {@link #wrap}, the wrapper may be reused across files.
+   *
+   * @param r Reader to wrap, not yet initialized.
+   * @return the wrapped reader
+   */
+  public static IFormatReader memoize(IFormatReader r) {
+    return new Memoizer(r, MINIMUM_ELAPSED,
+      LociPrefs.getMemoCacheDirectory())
+    {
+      @Override
+      public File getMemoFile(String id) {
+        // NB: The configuration is that of the reader at the time
+        // of initialization, as its options may change between files.
+        final String config = "groupFiles=" + isGroupFiles() +
+          ";metadataFiltered=" + isMetadataFiltered() +
+          ";originalMetadata=" + isOriginalMetadataPopulated();
+        final File dir = getDirectory(id, config);
+        if (dir == null) return null;
+        return new File(dir, "." + new File(id).getName() + ".bfmemo");
+      }
+    };
+  }
+
+  /**
+   * Gets the directory of the cache entry for the given file and
+   * configuration, creating it if needed.
+   *
+   * @return the entry's directory, or null if the cache is disabled
+   *   or the file is not a local file
+   */
+  public static synchronized File getDirectory(String id, String config) {
+    if (!LociPrefs.isMemoCacheEnabled() || id == null) return null;
+    final File file = new File(id);
+    if (!file.isFile()) return null;
+
+    final String key = getIdentity(file) + "\n" + config;
+    final File root = LociPrefs.getMemoCacheDirectory();
+    final File dir = new File(root, hash(key));
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      BF.debug("Cannot create memo cache directory " + dir);
+      return null;
+    }
+    // NB: The modification time of an entry marks its last use.
+    final long now = System.currentTimeMillis();
+    dir.setLastModified(now);
+    if (now - lastEviction >= EVICTION_INTERVAL) {
+      lastEviction = now;
+      EVICTOR.execute(new Runnable() {
+        @Override
+        public void run() {
+          evict(root, dir);
+        }
+      });
+    }
+    return dir;
+  }
+
+  /**
+   * Evicts expired entries, and then the least recently used entries
+   * until the cache fits within its size limit.
+   */
+  public static void evict() {
+    evict(LociPrefs.getMemoCacheDirectory(), null);
+  }
+
+  // -- Package-private utility methods --
+
+  /**
+   * Describes the identity of the given file, together with the
+   * configuration of the readers which parse it.
+   */
+  static String getIdentity(File file) {
+    return file.getAbsolutePath() + "\n" + file.length() + "\n" +
+      file.lastModified() + "\n" + FormatTools.VERSION + "\n" +
+      LociPrefs.getReaderConfiguration();
+  }
+
+  /** Computes a hexadecimal digest of the given key. */
+  static String hash(String key) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-1");
+      final byte[] digest = md.digest(key.getBytes("UTF-8"));
+      final StringBuilder sb = new StringBuilder();
+      for (byte b : digest) sb.append(String.format("%02x", b & 0xff));
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException exc) {
+      return Integer.toHexString(key.hashCode());
+    }
+    catch (UnsupportedEncodingException exc) {
+      return Integer.toHexString(key.hashCode());
+    }
+  }
+
+  // -- Helper methods --
+
+  private static void evict(File root, File keep) {
+    synchronized (EVICTION_LOCK) {
+      evictEntries(root, keep);
+    }
+  }
+
+  private static void evictEntries(File root, File keep) {
+    final File[] entries = root.listFiles();
+    if (entries == null) return;
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(b.lastModified(), a.lastModified());
+      }
+    });
+
+    final int days = LociPrefs.getMemoCacheAge();
+    final long expiry = days < 1 ? Long.MIN_VALUE :
+      System.currentTimeMillis() - days * DAY;
+    final long maxBytes = LociPrefs.getMemoCacheSize() * 1048576L;
+
+    // keep the most recently used entries which fit within the limits
+    long total = 0;
+    final List<File> evicted = new ArrayList<File>();
+    for (File entry : entries) {
+      if (!entry.isDirectory()) continue;
+      if (entry.equals(keep)) {
+        total += size(entry);
+        continue;
+      }
+      if (entry.lastModified() < expiry) {
+        evicted.add(entry);
+        continue;
+      }
+      total += size(entry);
+      if (total > maxBytes) evicted.add(entry);
+    }
+    for (File entry : evicted) {
+      BF.debug("Evicting memo cache entry " + entry);
+      delete(entry);
+    }
+  }
+
+  /** Computes the total size of the given file or directory, in bytes. */
+  private static long size(File file) {
+    final File[] children = file.listFiles();
+    if (children == null) return file.length();
+    long size = 0;
+    for (File child : children) size += size(child);
+    return size;
+  }
+
+  /** Deletes the given file or directory, along with its contents. */
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    if (!file.delete()) BF.debug("Cannot delete " + file);
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+
+import loci.formats.FormatTools;
+
+/**
+ * Accumulates the minimum and maximum of each channel over image processors
+ * read by {@link ImageProcessorReader}, in the units of the original data.
+ *
+ * Each thread should fill its own accumulator; the accumulators of several
+ * threads are then merged via {@link #add(MinMaxAccumulator)}.
+ */
+public class MinMaxAccumulator {
+
+  // -- Fields --
+
+  private final double[] min;
+  private final double[] max;
+
+  /** Offset added to signed integer samples to store them as unsigned. */
+  private final int shift;
+
+  /** Whether every plane of the series has been accumulated in full. */
+  private boolean complete;
+
+  // -- Constructor --
+
+  /**
+   * Creates an accumulator for the given number of channels
+   * of the given pixel type.
+   */
+  public MinMaxAccumulator(int sizeC, int pixelType) {
+    min = new double[sizeC];
+    max = new double[sizeC];
+    Arrays.fill(min, Double.NaN);
+    Arrays.fill(max, Double.NaN);
+    final int bpp = FormatTools.getBytesPerPixel(pixelType);
+    final boolean signed = FormatTools.isSigned(pixelType);
+    shift = !signed ? 0 : bpp == 1 ? 128 : bpp == 2 ? 32768 : 0;
+  }
+
+  // -- MinMaxAccumulator methods --
+
+  public int getSizeC() { return min.length; }
+
+  /** Gets the minimum of the given channel, or NaN if none is known. */
+  public double getMinimum(int c) { return min[c]; }
+
+  /** Gets the maximum of the given channel, or NaN if none is known. */
+  public double getMaximum(int c) { return max[c]; }
+
+  public boolean isComplete() { return complete; }
+
+  public void setComplete(boolean complete) { this.complete = complete; }
+
+  /** Adds the samples of the given processor to the given channel. */
+  public void add(int c, ImageProcessor ip) {
+    final Object pixels = ip.getPixels();
+    if (pixels instanceof byte[]) {
+      final byte[] q = (byte[]) pixels;
+      if (q.length == 0) return;
+      int lo = 0xff, hi = 0;
+      for (byte v : q) {
+        final int u = v & 0xff;
+        if (u < lo) lo = u;
+        if (u > hi) hi = u;
+      }
+      update(c, lo - shift, hi - shift);
+    }
+    else if (pixels instanceof short[]) {
+      final short[] q = (short[]) pixels;
+      if (q.length == 0) return;
+      int lo = 0xffff, hi = 0;
+      for (short v : q) {
+        final int u = v & 0xffff;
+        if (u < lo) lo = u;
+        if (u > hi) hi = u;
+      }
+      update(c, lo - shift, hi - shift);
+    }
+    else if (pixels instanceof float[]) {
+      float lo = Float.POSITIVE_INFINITY, hi = Float.NEGATIVE_INFINITY;
+      for (float v : (float[]) pixels) {
+        if (v < lo) lo = v;
+        if (v > hi) hi = v;
+      }
+      // NB: NaN samples never compare, so they are ignored.
+      if (lo <= hi) update(c, lo, hi);
+    }
+  }
+
+  /** Merges the values of the given accumulator into this one. */
+  public void add(MinMaxAccumulator other) {
+    final int sizeC = Math.min(getSizeC(), other.getSizeC());
+    for (int c=0; c<sizeC; c++) {
+      if (!Double.isNaN(other.min[c])) update(c, other.min[c], other.max[c]);
+    }
+  }
+
+  // -- Helper methods --
+
+  private void update(int c, double lo, double hi) {
+    if (Double.isNaN(min[c]) || lo < min[c]) min[c] = lo;
+    if (Double.isNaN(max[c]) || hi > max[c]) max[c] = hi;
+  }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import loci.plugins.BF;
+
+/**
+ * Keeps the raw pixels of decoded planes outside of the Java heap, either in
+ * direct byte buffers or in a memory-mapped scratch file, so that planes can
+ * be kept warm without adding to garbage collection pauses. Image processors
+ * are only created when a plane is retrieved.
+ *
+ * All planes in a store have the same size; once the store is full, the
+ * least recently used plane is replaced.
+ */
+public class OffHeapPlaneStore {
+
+  // -- Constants --
+
+  /** Maximum number of bytes in a single mapped region of the file. */
+  private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+  // -- Fields --
+
+  private final int width, height;
+
+  /** Number of bytes per pixel: 1 (byte), 2 (short) or 4 (float). */
+  private final int bytesPerPixel;
+
+  /** Number of bytes in a single plane. */
+  private final int planeBytes;
+
+  /** Number of planes the store can hold. */
+  private final int capacity;
+
+  /** Number of planes per buffer. */
+  private final int planesPerBuffer;
+
+  /** Storage, allocated as needed. */
+  private final ByteBuffer[] buffers;
+
+  /** Scratch file backing the buffers, or null for direct buffers. */
+  private File file;
+  private RandomAccessFile raf;
+
+  /** Slot of each stored plane, least recently used first. */
+  private final LinkedHashMap<Integer, Slot> slots =
+    new LinkedHashMap<Integer, Slot>(16, 0.75f, true);
+
+  /** Slots whose planes have been discarded. */
+  private final List<Integer> freeSlots = new ArrayList<Integer>();
+
+  /** Whether storage could not be allocated, disabling the store. */
+  private boolean failed;
+
+  // -- Constructor --
+
+  /**
+   * Creates a plane store.
+   *
+   * @param width Width of each plane.
+   * @param height Height of each plane.
+   * @param bytesPerPixel Bytes per pixel of the stored processors.
+   * @param maxBytes Maximum number of bytes to store.
+   * @param mapped Whether to use a memory-mapped scratch file
+   *   rather than direct buffers.
+   * @throws IOException if a plane is too large to be stored,
+   *   or the scratch file cannot be created
+   */
+  public OffHeapPlaneStore(int width, int height, int bytesPerPixel,
+    long maxBytes, boolean mapped) throws IOException
+  {
+    this.width = width;
+    this.height = height;
+    this.bytesPerPixel = bytesPerPixel;
+    final long size = (long) width * height * bytesPerPixel;
+    if (size > MAX_REGION_SIZE) {
+      throw new IOException("Plane too large: " + size + " bytes");
+    }
+    planeBytes = (int) size;
+    capacity = planeBytes == 0 ? 0 :
+      (int) Math.min(Integer.MAX_VALUE, maxBytes / planeBytes);
+    if (mapped && capacity > 0) {
+      planesPerBuffer = (int) Math.max(1, MAX_REGION_SIZE / planeBytes);
+      file = File.createTempFile("bio-formats-planes", ".raw");
+      file.deleteOnExit();
+      raf = new RandomAccessFile(file, "rw");
+    }
+    else planesPerBuffer = 1;
+    final int bufferCount = (capacity + planesPerBuffer - 1) / planesPerBuffer;
+    buffers = new ByteBuffer[bufferCount];
+    for (int i=capacity-1; i>=0; i--) freeSlots.add(i);
+  }
+
+  // -- OffHeapPlaneStore methods --
+
+  /** Gets whether the store can hold at least one plane. */
+  public synchronized boolean isEnabled() { return capacity > 0 && !failed; }
+
+  /** Gets whether the plane with the given index is stored. */
+  public synchronized boolean contains(int index) {
+    return slots.containsKey(index);
+  }
+
+  /**
+   * Stores a copy of the given processor's pixels, replacing the least
+   * recently used plane if the store is full.
+   */
+  public synchronized void put(int index, ImageProcessor ip) {
+    if (!isEnabled() || ip == null) return;
+    if (ip.getWidth() != width || ip.getHeight() != height) return;
+    final Object pixels = ip.getPixels();
+    if (getBytesPerPixel(pixels) != bytesPerPixel) return;
+
+    Slot slot = slots.get(index);
+    if (slot == null) {
+      if (freeSlots.isEmpty()) {
+        final Iterator<Slot> eldest = slots.values().iterator();
+        freeSlots.add(eldest.next().slot);
+        eldest.remove();
+      }
+      slot = new Slot(freeSlots.remove(freeSlots.size() - 1));
+      slots.put(index, slot);
+    }
+    slot.colorModel = ip.getColorModel();
+
+    final ByteBuffer buf;
+    try {
+      buf = getBuffer(slot.slot);
+    }
+    catch (IOException exc) {
+      fail("Cannot store plane #" + index + ": " + exc.getMessage());
+      return;
+    }
+    if (pixels instanceof byte[]) buf.put((byte[]) pixels);
+    else if (pixels instanceof short[]) {
+      buf.asShortBuffer().put((short[]) pixels);
+    }
+    else buf.asFloatBuffer().put((float[]) pixels);
+  }
+
+  /**
+   * Creates an image processor from the stored pixels of the given plane.
+   *
+   * @return the processor, or null if the plane is not stored
+   */
+  public synchronized ImageProcessor get(int index) {
+    final Slot slot = slots.get(index);
+    if (slot == null) return null;
+    final ByteBuffer buf;
+    try {
+      buf = getBuffer(slot.slot);
+    }
+    catch (IOException exc) {
+      fail("Cannot retrieve plane #" + index + ": " + exc.getMessage());
+      return null;
+    }
+    final int size = width * height;
+    final ColorModel cm = slot.colorModel;
+    if (bytesPerPixel == 1) {
+      final byte[] q = new byte[size];
+      buf.get(q);
+      final ImageProcessor ip = new ByteProcessor(width, height, q, null);
+      if (cm != null) ip.setColorModel(cm);
+      return ip;
+    }
+    if (bytesPerPixel == 2) {
+      final short[] q = new short[size];
+      buf.asShortBuffer().get(q);
+      return new ShortProcessor(width, height, q, cm);
+    }
+    final float[] q = new float[size];
+    buf.asFloatBuffer().get(q);
+    return new FloatProcessor(width, height, q, cm);
+  }
+
+  /** Discards all stored planes, and deletes the scratch file, if any. */
+  public synchronized void close() {
+    slots.clear();
+    freeSlots.clear();
+    for (int i=0; i<buffers.length; i++) buffers[i] = null;
+    if (raf != null) {
+      try {
+        raf.close();
+      }
+      catch (IOException exc) {
+        BF.debug("Cannot close scratch file: " + exc.getMessage());
+      }
+      raf = null;
+      // NB: The file may remain mapped until the buffers are collected,
+      // in which case it is deleted on exit instead.
+      file.delete();
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Disables the store after storage could not be allocated, releasing
+   * what storage it has. Only the first failure is reported.
+   */
+  private void fail(String msg) {
+    if (!failed) BF.warn(false, msg + "; no longer keeping planes off-heap");
+    failed = true;
+    close();
+  }
+
+  private static int getBytesPerPixel(Object pixels) {
+    if (pixels instanceof byte[]) return 1;
+    if (pixels instanceof short[]) return 2;
+    if (pixels instanceof float[]) return 4;
+    return 0;
+  }
+
+  /**
+   * Gets a view of the given slot's storage, positioned at its start and
+   * limited to its end, allocating or mapping the storage if necessary.
+   */
+  private ByteBuffer getBuffer(int slot) throws IOException {
+    final int b = slot / planesPerBuffer;
+    if (buffers[b] == null) {
+      final int planes =
+        Math.min(planesPerBuffer, capacity - b * planesPerBuffer);
+      final long length = (long) planes * planeBytes;
+      try {
+        if (raf == null) buffers[b] = ByteBuffer.allocateDirect((int) length);
+        else {
+          final long offset = (long) b * planesPerBuffer * planeBytes;
+          buffers[b] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+            offset, length);
+        }
+      }
+      catch (OutOfMemoryError err) {
+        // NB: Direct and mapped memory is limited apart from the heap, e.g.
+        // by -XX:MaxDirectMemorySize; running out of it is not fatal here.
+        throw new IOException("Cannot allocate " + length + " bytes: " +
+          err.getMessage());
+      }
+    }
+    final ByteBuffer buf = buffers[b].duplicate();
+    final int start = (slot % planesPerBuffer) * planeBytes;
+    buf.limit(start + planeBytes);
+    buf.position(start);
+    return buf.slice().order(ByteOrder.nativeOrder());
+  }
+
+  // -- Helper classes --
+
+  /** Storage location of a single plane. */
+  private static class Slot {
+    private final int slot;
+    private ColorModel colorModel;
+
+    public Slot(int slot) {
+      this.slot = slot;
+    }
+  }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.plugins.BF;
+
+/**
+ * Reads the image planes surrounding the current position of a virtual stack
+ * on background threads, so that they are ready by the time they are shown.
+ *
+ * Neighbors are chosen as with {@link loci.formats.cache.CrosshairStrategy}:
+ * along each axis separately, up to a configurable depth per axis, nearest
+ * planes first. Whenever the position changes, planes which are no longer
+ * in its neighborhood are discarded, and pending reads of them canceled;
+ * planes which remain in it are kept, including those already taken, so
+ * that stepping back and forth does not read them again. The planes kept
+ * count towards the shared {@link CacheBudget}, which limits how many
+ * neighbors are read ahead.
+ */
+public class PlanePrefetcher {
+
+  // -- Fields --
+
+  /** Source of reader stacks with which to read planes. */
+  private final ReaderPool pool;
+
+  /** Series from which to read planes. */
+  private final int series;
+
+  /** Length of each axis of the rasterized plane positions. */
+  private final int[] lengths;
+
+  /** Number of planes to read ahead on either side, along each axis. */
+  private final int[] depths;
+
+  private final ExecutorService executor;
+
+  /** Scheduled reads, keyed by plane index. */
+  private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+  /** Accounts for the planes read ahead within the shared cache budget. */
+  private final BudgetedStrategy strategy;
+
+  /** Index of the current plane, or -1 if none. */
+  private int current = -1;
+
+  // -- Constructor --
+
+  /**
+   * Creates a prefetcher for the given series.
+   *
+   * @param pool Reader stacks with which to read planes.
+   * @param series Series from which to read planes.
+   * @param lengths Length of each axis; plane indices are rasters of these.
+   * @param depths Read-ahead depth along each axis.
+   * @param planeBytes Size of a single plane, in bytes.
+   */
+  public PlanePrefetcher(ReaderPool pool, int series, int[] lengths,
+    int[] depths, long planeBytes)
+  {
+    if (lengths.length != depths.length) {
+      throw new IllegalArgumentException("Lengths and depths do not match");
+    }
+    this.pool = pool;
+    this.series = series;
+    this.lengths = lengths.clone();
+    this.depths = depths.clone();
+    executor = Executors.newFixedThreadPool(pool.getMaxSize(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          final Thread t = new Thread(r, "Bio-Formats-Prefetch");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    strategy = new BudgetedStrategy(lengths, planeBytes);
+    strategy.setTrimmer(new Runnable() {
+      @Override
+      public void run() {
+        discard(new ArrayList<Integer>());
+      }
+    });
+    CacheBudget.register(strategy);
+  }
+
+  // -- PlanePrefetcher methods --
+
+  /** Gets whether any axis has a nonzero read-ahead depth. */
+  public boolean isEnabled() {
+    for (int depth : depths) if (depth > 0) return true;
+    return false;
+  }
+
+  /**
+   * Schedules reading of the planes surrounding the given position,
+   * discarding those that are not among them.
+   */
+  public synchronized void prefetch(int[] pos) {
+    if (executor.isShutdown()) return;
+    current = FormatTools.positionToRaster(lengths, pos);
+    List<Integer> wanted = getNeighbors(pos);
+
+    // read ahead only as many planes as the budget allows, nearest first
+    final int granted = CacheBudget.request(strategy, wanted.size() + 1);
+    if (granted - 1 < wanted.size()) wanted = wanted.subList(0, granted - 1);
+
+    discard(wanted);
+
+    // schedule planes not yet requested
+    for (Integer index : wanted) {
+      if (entries.containsKey(index)) continue;
+      final Entry entry = new Entry(index);
+      entries.put(index, entry);
+      executor.execute(entry);
+    }
+  }
+
+  /**
+   * Gets the plane with the given index, if it has been scheduled.
+   * If it is being read, waits for the read to finish; if it has not been
+   * started yet, reads it on the calling thread. The plane is kept for as
+   * long as it remains in the neighborhood of the current position.
+   *
+   * @return the plane, or null if it was not scheduled or could not be read
+   */
+  public ImageProcessor take(int index) {
+    final Entry entry;
+    synchronized (this) {
+      entry = entries.get(index);
+      if (entry == null) return null;
+    }
+    // NB: Reading it on the caller's thread is faster than waiting; this
+    // does nothing if the read has already started.
+    entry.run();
+    try {
+      return entry.get();
+    }
+    catch (CancellationException exc) {
+      // discarded meanwhile
+    }
+    catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException exc) {
+      BF.debug("Could not prefetch plane #" + index + ": " + exc.getCause());
+    }
+    return null;
+  }
+
+  /** Cancels any pending reads and stops the background threads. */
+  public synchronized void close() {
+    for (Entry entry : entries.values()) entry.cancel(false);
+    entries.clear();
+    executor.shutdown();
+    CacheBudget.unregister(strategy);
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Discards the planes other than the current one and the given ones,
+   * canceling pending reads of them.
+   */
+  private synchronized void discard(List<Integer> keep) {
+    final Iterator<Map.Entry<Integer, Entry>> iter =
+      entries.entrySet().iterator();
+    while (iter.hasNext()) {
+      final Map.Entry<Integer, Entry> e = iter.next();
+      final int index = e.getKey();
+      if (index == current || keep.contains(index)) continue;
+      // NB: Do not interrupt reads already in progress, since interrupting
+      // I/O can leave the reader in an unusable state.
+      e.getValue().cancel(false);
+      iter.remove();
+    }
+  }
+
+  /** Gets the indices of the planes surrounding the given position. */
+  private List<Integer> getNeighbors(int[] pos) {
+    final List<Integer> neighbors = new ArrayList<Integer>();
+    int maxDepth = 0;
+    for (int depth : depths) maxDepth = Math.max(maxDepth, depth);
+    final int[] p = new int[pos.length];
+    for (int d=1; d<=maxDepth; d++) {
+      for (int axis=0; axis<lengths.length; axis++) {
+        if (d > depths[axis]) continue;
+        for (int sign=1; sign>=-1; sign-=2) {
+          final int value = pos[axis] + sign * d;
+          if (value < 0 || value >= lengths[axis]) continue;
+          System.arraycopy(pos, 0, p, 0, pos.length);
+          p[axis] = value;
+          neighbors.add(FormatTools.positionToRaster(lengths, p));
+        }
+      }
+    }
+    return neighbors;
+  }
+
+  // -- Helper classes --
+
+  /** A scheduled read of a single plane. */
+  private class Entry extends FutureTask<ImageProcessor> {
+
+    public Entry(final int index) {
+      super(new Callable<ImageProcessor>() {
+        @Override
+        public ImageProcessor call() throws FormatException, IOException {
+          final ImageProcessorReader r = pool.acquire();
+          if (r == null) return null;
+          try {
+            r.setSeries(series);
+            return r.openProcessors(index)[0];
+          }
+          finally {
+            pool.release(r);
+          }
+        }
+      });
+    }
+
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import loci.formats.FormatException;
+
+/**
+ * A bounded pool of independent, fully initialized reader stacks
+ * for the same dataset, so that several threads can read image planes
+ * without contending on a single reader.
+ */
+public class ReaderPool {
+
+  // -- Fields --
+
+  /** Source of new reader stacks. */
+  private final ReaderFactory factory;
+
+  /** Maximum number of reader stacks in the pool. */
+  private final int maxSize;
+
+  /** Reader stacks not currently in use. */
+  private final LinkedList<ImageProcessorReader> idle =
+    new LinkedList<ImageProcessorReader>();
+
+  /** All reader stacks created by this pool. */
+  private final List<ImageProcessorReader> readers =
+    new ArrayList<ImageProcessorReader>();
+
+  /** Number of reader stacks currently being created. */
+  private int pending;
+
+  private boolean closed;
+
+  // -- Constructor --
+
+  /**
+   * Creates a reader pool.
+   *
+   * @param factory Source of new reader stacks.
+   * @param maxSize Maximum number of reader stacks to create.
+   */
+  public ReaderPool(ReaderFactory factory, int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Invalid pool size: " + maxSize);
+    }
+    this.factory = factory;
+    this.maxSize = maxSize;
+  }
+
+  // -- ReaderPool methods --
+
+  /** Gets the maximum number of reader stacks in the pool. */
+  public int getMaxSize() { return maxSize; }
+
+  /** Gets the number of reader stacks created so far. */
+  public synchronized int getSize() { return readers.size(); }
+
+  /**
+   * Obtains a reader stack for exclusive use, creating one if none is idle
+   * and the pool is not yet full, or else waiting for one to be released.
+   * The reader must be handed back via {@link #release}.
+   *
+   * @return a reader stack, or null if the factory could not create one
+   */
+  public ImageProcessorReader acquire() throws FormatException, IOException {
+    synchronized (this) {
+      while (true) {
+        if (closed) throw new IOException("Reader pool is closed");
+        if (!idle.isEmpty()) return idle.removeFirst();
+        if (readers.size() + pending < maxSize) break;
+        try {
+          wait();
+        }
+        catch (InterruptedException exc) {
+          throw new IOException("Interrupted waiting for reader", exc);
+        }
+      }
+      pending++;
+    }
+
+    // NB: Create the reader outside the lock, since initialization can be
+    // slow and other threads may meanwhile release readers they are done with.
+    ImageProcessorReader r = null;
+    try {
+      r = factory.createReader();
+    }
+    finally {
+      synchronized (this) {
+        pending--;
+        if (r != null) readers.add(r);
+        notifyAll();
+      }
+    }
+    return r;
+  }
+
+  /** Returns a reader stack obtained via {@link #acquire} to the pool. */
+  public void release(ImageProcessorReader r) throws IOException {
+    if (r == null) return;
+    boolean dispose;
+    synchronized (this) {
+      dispose = closed;
+      if (dispose) readers.remove(r);
+      else idle.addLast(r);
+      notifyAll();
+    }
+    if (dispose) r.close();
+  }
+
+  /**
+   * Closes the pool, along with all idle reader stacks.
+   * Reader stacks still in use are closed as they are released.
+   */
+  public void close() throws IOException {
+    final List<ImageProcessorReader> toClose;
+    synchronized (this) {
+      closed = true;
+      toClose = new ArrayList<ImageProcessorReader>(idle);
+      readers.removeAll(idle);
+      idle.clear();
+      notifyAll();
+    }
+    for (ImageProcessorReader r : toClose) r.close();
+  }
+
+  // -- Helper classes --
+
+  /** Creates new, fully initialized reader stacks for a {@link ReaderPool}. */
+  public interface ReaderFactory {
+    /** @return a new reader stack, or null if one cannot be created */
+    ImageProcessorReader createReader() throws FormatException, IOException;
+  }
+
+}
@@ -46,11 +46,15 @@ import java.awt.image.ColorModel;
 import java.awt.image.DirectColorModel;
 import java.awt.image.IndexColorModel;
 import java.awt.image.MemoryImageSource;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
+import loci.plugins.BF;
+
 /**
  * Image processor extension that records commands executed upon it.
  * Allows "recordable virtual stacks" that repeat operations performed on
@@ -98,14 +102,17 @@ public class RecordedImageProcessor extends ImageProcessor {
   }
 
   public void applyMethodStack(List<MethodEntry> stack) {
+    final Class<?> c = proc.getClass();
     for (int i=0; i<stack.size(); i++) {
-      MethodEntry m = stack.get(i);
+      final MethodEntry m = stack.get(i);
+      final MethodHandle handle = m.getHandle(c);
+      if (handle == null) continue;
       try {
-        m.method.invoke(proc, m.args);
-      }
-      catch (IllegalAccessException e) {
+        handle.invokeExact(proc);
       }
-      catch (InvocationTargetException e) {
+      catch (Throwable t) {
+        m.fail("Cannot replay " + m.name + " on " + c.getSimpleName() +
+          ": " + t);
       }
     }
   }
@@ -1207,20 +1214,87 @@ public class RecordedImageProcessor extends ImageProcessor {
         m.args[i] = null;
       }
     }
+    m.parameterTypes = c == null ? new Class<?>[0] : c;
     try {
       m.method = proc.getClass().getMethod(method, c);
     }
     catch (NoSuchMethodException e) {
     }
+    // NB: Compile the call now, so that replaying it is a direct invocation.
+    m.getHandle(proc.getClass());
     methodStack.add(m);
   }
 
   // -- Helper class --
 
+  /**
+   * A recorded call upon the child processor. Each entry is compiled into a
+   * method handle with its arguments bound, so that replaying a method stack
+   * does not involve reflective lookups or argument unpacking.
+   */
   class MethodEntry {
     public String name;
     public Object[] args;
     public Method method;
+
+    /** Types of the method's parameters. */
+    Class<?>[] parameterTypes;
+
+    /** Class of processor for which the handle was compiled. */
+    private Class<?> handleClass;
+
+    /** The call, with its arguments bound, as an (ImageProcessor)void. */
+    private MethodHandle handle;
+
+    /** Whether the call has failed, and been reported. */
+    private boolean failed;
+
+    /**
+     * Gets the call compiled for processors of the given class,
+     * or null if it cannot be replayed upon them.
+     */
+    synchronized MethodHandle getHandle(Class<?> c) {
+      if (failed) return null;
+      if (handle != null && c == handleClass) return handle;
+      handle = null;
+      handleClass = c;
+      try {
+        Method m = method;
+        if (m == null || !m.getDeclaringClass().isAssignableFrom(c)) {
+          m = c.getMethod(name, parameterTypes);
+        }
+        MethodHandle h = MethodHandles.publicLookup().unreflect(m);
+        if (args != null && args.length > 0) {
+          h = MethodHandles.insertArguments(h, 1, args);
+        }
+        handle = h.asType(MethodType.methodType(void.class,
+          ImageProcessor.class));
+      }
+      catch (NoSuchMethodException e) {
+        disable("Cannot record " + name + " on " + c.getSimpleName());
+      }
+      catch (IllegalAccessException e) {
+        disable("Cannot record " + name + ": " + e.getMessage());
+      }
+      catch (RuntimeException e) {
+        // NB: insertArguments and asType throw if the arguments do not fit.
+        disable("Cannot record " + name + ": " + e);
+      }
+      return handle;
+    }
+
+    /** Disables this call, reporting the given problem. */
+    synchronized void fail(String msg) {
+      disable(msg);
+      BF.warn(false, msg);
+    }
+
+    /** Disables this call, noting the given problem in debug mode. */
+    private void disable(String msg) {
+      failed = true;
+      handle = null;
+      BF.debug(msg);
+    }
   }
 
 }
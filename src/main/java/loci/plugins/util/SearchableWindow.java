@@ -38,6 +38,7 @@ import java.awt.MenuItem;
 import java.awt.Scrollbar;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Iterator;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -55,6 +56,9 @@ import com.jgoodies.forms.layout.FormLayout;
  */
 public class SearchableWindow extends TextWindow {
 
+  /** Number of lines appended between display updates. */
+  private static final int APPEND_BATCH = 1000;
+
   protected TextPanel panel;
   protected int index;
 
@@ -87,6 +91,19 @@ public class SearchableWindow extends TextWindow {
 
   // -- SearchableWindow API methods --
 
+  /**
+   * Appends the given lines to the window, updating the display after each
+   * batch of lines, so that long text need not be built up front.
+   */
+  public void appendLines(Iterator<String> lines) {
+    int count = 0;
+    while (lines.hasNext()) {
+      panel.appendWithoutUpdate(lines.next());
+      if (++count % APPEND_BATCH == 0) panel.updateDisplay();
+    }
+    panel.updateDisplay();
+  }
+
   public void selectLine(int index) {
     //int ys = panel.getFontMetrics(getFont()).getHeight() + 2;
     //int y = ys * (index + 1) + 2;  // absolute y coordinate
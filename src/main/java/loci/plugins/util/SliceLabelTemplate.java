@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.common.DateTools;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.Modulo;
+import loci.formats.meta.DummyMetadata;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.meta.MetadataStore;
+import ome.units.UNITS;
+import ome.units.quantity.Time;
+import ome.xml.model.primitives.Timestamp;
+
+/**
+ * A slice label pattern (see {@link LociPrefs#getSliceLabelPattern()}),
+ * parsed once and bound to one series of a reader, so that the label of
+ * each plane can be built with a few string appends.
+ */
+public class SliceLabelTemplate {
+
+  // -- Constants --
+
+  /** Placeholders recognized within slice label patterns. */
+  private static final String[] FIELDS = {
+    FormatTools.SERIES_NUM, FormatTools.SERIES_NAME, FormatTools.CHANNEL_NUM,
+    FormatTools.CHANNEL_NAME, FormatTools.Z_NUM, FormatTools.T_NUM,
+    FormatTools.TIMESTAMP
+  };
+
+  private static final int SERIES_NUM = 0;
+  private static final int SERIES_NAME = 1;
+  private static final int CHANNEL_NUM = 2;
+  private static final int CHANNEL_NAME = 3;
+  private static final int Z_NUM = 4;
+  private static final int T_NUM = 5;
+  private static final int TIMESTAMP = 6;
+
+  // -- Fields --
+
+  /** Literal text preceding each placeholder, plus any trailing text. */
+  private final String[] literals;
+
+  /** Placeholders of the pattern, in order, as indices into FIELDS. */
+  private final int[] fields;
+
+  private final int series;
+  private final String order;
+  private final int sizeZ, sizeC, sizeT;
+  private final String seriesName;
+
+  /** Channel label and name of each effective channel, if needed. */
+  private String[] channelLabels, channelNames;
+
+  /** Suffixes of the Z and T labels, e.g. "/10 ". */
+  private final String zSuffix, tSuffix;
+
+  /** Metadata from which plane timestamps are read, if needed. */
+  private MetadataRetrieve retrieve;
+
+  /** Acquisition date, in milliseconds since the UNIX epoch. */
+  private long dateBase;
+
+  /** Whether plane timestamps are offset from the acquisition date. */
+  private boolean useDeltaT;
+  private int planeCount;
+
+  // -- Constructor --
+
+  /**
+   * Parses the given slice label pattern, and precomputes those parts
+   * of the labels which are constant across the given series.
+   */
+  public SliceLabelTemplate(String pattern, IFormatReader r, int series) {
+    final List<String> text = new ArrayList<String>();
+    final List<Integer> found = new ArrayList<Integer>();
+    final StringBuilder sb = new StringBuilder();
+    for (int i=0; i<pattern.length(); i++) {
+      int field = -1;
+      for (int f=0; f<FIELDS.length; f++) {
+        if (pattern.startsWith(FIELDS[f], i)) {
+          field = f;
+          break;
+        }
+      }
+      if (field < 0) {
+        sb.append(pattern.charAt(i));
+        continue;
+      }
+      text.add(sb.toString());
+      found.add(field);
+      sb.setLength(0);
+      i += FIELDS[field].length() - 1;
+    }
+    text.add(sb.toString());
+    literals = text.toArray(new String[text.size()]);
+    fields = new int[found.size()];
+    for (int i=0; i<fields.length; i++) fields[i] = found.get(i);
+
+    r.setSeries(series);
+    this.series = series;
+    order = r.getDimensionOrder();
+    sizeZ = r.getSizeZ();
+    sizeC = r.getEffectiveSizeC();
+    sizeT = r.getSizeT();
+    zSuffix = "/" + sizeZ + " ";
+    tSuffix = "/" + sizeT + " ";
+
+    final MetadataStore store = r.getMetadataStore();
+    final MetadataRetrieve meta = store instanceof MetadataRetrieve ?
+      (MetadataRetrieve) store : new DummyMetadata();
+    String imageName = uses(SERIES_NAME) ? meta.getImageName(series) : null;
+    if (imageName == null) imageName = "Series" + series;
+    seriesName = imageName;
+
+    if (sizeC > 1 && uses(CHANNEL_NUM)) {
+      channelLabels = getChannelLabels(r);
+    }
+    if (sizeC > 1 && uses(CHANNEL_NAME)) {
+      channelNames = new String[sizeC];
+      final int channelCount = meta.getChannelCount(series);
+      for (int c=0; c<sizeC; c++) {
+        String name = c < channelCount ? meta.getChannelName(series, c) : null;
+        channelNames[c] = name == null ? String.valueOf(c) : name;
+      }
+    }
+
+    if (uses(TIMESTAMP)) {
+      final Timestamp timestamp = meta.getImageAcquisitionDate(series);
+      if (timestamp != null) {
+        dateBase =
+          DateTools.getTime(timestamp.getValue(), DateTools.ISO8601_FORMAT);
+        retrieve = meta;
+        planeCount = meta.getPlaneCount(series);
+        useDeltaT = true;
+      }
+      else dateBase = System.currentTimeMillis();
+    }
+  }
+
+  // -- SliceLabelTemplate methods --
+
+  /** Gets the label of the given plane of this template's series. */
+  public String getLabel(int no) {
+    final int[] zct = FormatTools.getZCTCoords(order,
+      sizeZ, sizeC, sizeT, sizeZ * sizeC * sizeT, no);
+    final StringBuilder sb = new StringBuilder();
+    for (int i=0; i<fields.length; i++) {
+      sb.append(literals[i]);
+      switch (fields[i]) {
+        case SERIES_NUM:
+          sb.append(series);
+          break;
+        case SERIES_NAME:
+          sb.append(seriesName);
+          break;
+        case CHANNEL_NUM:
+          if (channelLabels != null) sb.append(channelLabels[zct[1]]);
+          break;
+        case CHANNEL_NAME:
+          if (channelNames != null) sb.append(channelNames[zct[1]]);
+          break;
+        case Z_NUM:
+          if (sizeZ > 1) sb.append("z:").append(zct[0] + 1).append(zSuffix);
+          break;
+        case T_NUM:
+          if (sizeT > 1) sb.append("t:").append(zct[2] + 1).append(tSuffix);
+          break;
+        case TIMESTAMP:
+          sb.append(getTimestamp(no));
+          break;
+      }
+    }
+    sb.append(literals[fields.length]);
+    return sb.toString();
+  }
+
+  // -- Helper methods --
+
+  private boolean uses(int field) {
+    for (int f : fields) {
+      if (f == field) return true;
+    }
+    return false;
+  }
+
+  /** Builds the label of each effective channel, e.g. "c:1/3 ". */
+  private String[] getChannelLabels(IFormatReader r) {
+    int[] subC;
+    String[] subCTypes;
+    Modulo moduloC = r.getModuloC();
+    if (moduloC.length() > 1) {
+      subC = new int[] {r.getSizeC() / moduloC.length(), moduloC.length()};
+      subCTypes = new String[] {moduloC.parentType, moduloC.type};
+    }
+    else {
+      subC = new int[] {r.getSizeC()};
+      subCTypes = new String[] {FormatTools.CHANNEL};
+    }
+    final String[] labels = new String[sizeC];
+    for (int c=0; c<sizeC; c++) {
+      int[] subCPos = FormatTools.rasterToPosition(subC, c);
+      StringBuilder channelString = new StringBuilder();
+      for (int i=0; i<subC.length; i++) {
+        boolean ch =
+          subCTypes[i] == null || FormatTools.CHANNEL.equals(subCTypes[i]);
+        channelString.append(ch ? "c" : subCTypes[i]);
+        channelString.append(":");
+        channelString.append(subCPos[i] + 1);
+        channelString.append("/");
+        channelString.append(subC[i]);
+        if (i < subC.length - 1) channelString.append(", ");
+      }
+      channelString.append(" ");
+      labels[c] = channelString.toString();
+    }
+    return labels;
+  }
+
+  /** Formats the timestamp of the given plane. */
+  private String getTimestamp(int no) {
+    long stamp = dateBase;
+    if (useDeltaT && planeCount > no) {
+      Time deltaT = retrieve.getPlaneDeltaT(series, no);
+      if (deltaT != null) {
+        stamp += (long) (deltaT.value(UNITS.SECOND).doubleValue() * 1000);
+      }
+    }
+    return DateTools.convertDate(stamp, (int) DateTools.UNIX_EPOCH);
+  }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.plugins.BF;
+
+/**
+ * Per-channel minima and maxima of datasets, kept in a persistent on-disk
+ * cache configured in {@link LociPrefs}, or estimated from a sample of
+ * each channel's planes.
+ *
+ * The statistics of each dataset are kept in a sidecar properties file
+ * keyed by the dataset's path, size and modification time, together with
+ * the reader configuration.
+ */
+public final class StatisticsCache {
+
+  // -- Constructor --
+
+  private StatisticsCache() { }
+
+  // -- Utility methods --
+
+  /**
+   * Gets the persisted minima and maxima of the channels of the given series.
+   *
+   * @return an array of the channel minima followed by the channel maxima,
+   *   or null if the cache is disabled or holds no values for the series
+   */
+  public static synchronized double[][] load(String id, int series,
+    int sizeC)
+  {
+    final File file = getFile(id);
+    if (file == null || !file.isFile()) return null;
+    final Properties props = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      props.load(in);
+    }
+    catch (IOException exc) {
+      BF.debug("Cannot read channel statistics: " + exc.getMessage());
+      return null;
+    }
+    final double[] min = parse(props.getProperty(series + ".min"), sizeC);
+    final double[] max = parse(props.getProperty(series + ".max"), sizeC);
+    if (min == null || max == null) return null;
+    return new double[][] {min, max};
+  }
+
+  /**
+   * Persists the exact minima and maxima of the channels of the given series.
+   * Does nothing if the cache is disabled.
+   */
+  public static synchronized void save(String id, int series, double[] min,
+    double[] max)
+  {
+    final File file = getFile(id);
+    if (file == null) return;
+    final Properties props = new Properties();
+    if (file.isFile()) {
+      try (InputStream in = new FileInputStream(file)) {
+        props.load(in);
+      }
+      catch (IOException exc) {
+        BF.debug("Cannot read channel statistics: " + exc.getMessage());
+      }
+    }
+    props.setProperty(series + ".min", format(min));
+    props.setProperty(series + ".max", format(max));
+    final File dir = file.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) return;
+    try (OutputStream out = new FileOutputStream(file)) {
+      props.store(out, id);
+    }
+    catch (IOException exc) {
+      BF.debug("Cannot write channel statistics: " + exc.getMessage());
+    }
+  }
+
+  /**
+   * Estimates the minima and maxima of the channels of the reader's current
+   * series from every Nth plane of each channel, considering every Nth pixel
+   * of every Nth row of each plane.
+   *
+   * @param planeStep Interval between the sampled planes of each channel.
+   * @param xyStep Interval between sampled pixels, in X and Y.
+   * @return an array of the channel minima followed by the channel maxima
+   */
+  public static double[][] sample(ImageProcessorReader r, int planeStep,
+    int xyStep) throws FormatException, IOException
+  {
+    final int sizeC = r.getSizeC();
+    final int sizeZ = r.getSizeZ();
+    final int sizeT = r.getSizeT();
+    final double[] min = new double[sizeC];
+    final double[] max = new double[sizeC];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    // NB: Signed 8-bit and 16-bit planes are shifted into the unsigned range
+    // of their processors, so shift the samples back to the original values.
+    final int pixelType = r.getPixelType();
+    final int bpp = FormatTools.getBytesPerPixel(pixelType);
+    final int shift = !FormatTools.isSigned(pixelType) ? 0 :
+      bpp == 1 ? 128 : bpp == 2 ? 32768 : 0;
+    for (int c=0; c<sizeC; c++) {
+      for (int zt=0; zt<sizeZ*sizeT; zt+=planeStep) {
+        final int no = r.getIndex(zt % sizeZ, c, zt / sizeZ);
+        for (ImageProcessor ip : r.openProcessors(no)) {
+          for (int y=0; y<ip.getHeight(); y+=xyStep) {
+            for (int x=0; x<ip.getWidth(); x+=xyStep) {
+              final float v = ip.getf(x, y) - shift;
+              if (v < min[c]) min[c] = v;
+              if (v > max[c]) max[c] = v;
+            }
+          }
+        }
+      }
+    }
+    return new double[][] {min, max};
+  }
+
+  // -- Helper methods --
+
+  /** Gets the sidecar file for the given dataset, or null if disabled. */
+  private static File getFile(String id) {
+    if (!LociPrefs.isStatisticsCacheEnabled() || id == null) return null;
+    final File file = new File(id);
+    if (!file.isFile()) return null;
+    final String name = MemoCache.hash(MemoCache.getIdentity(file));
+    return new File(LociPrefs.getStatisticsCacheDirectory(),
+      name + ".properties");
+  }
+
+  private static String format(double[] values) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i=0; i<values.length; i++) {
+      if (i > 0) sb.append(",");
+      sb.append(values[i]);
+    }
+    return sb.toString();
+  }
+
+  private static double[] parse(String s, int count) {
+    if (s == null) return null;
+    final String[] tokens = s.split(",");
+    if (tokens.length != count) return null;
+    final double[] values = new double[count];
+    try {
+      for (int i=0; i<count; i++) values[i] = Double.parseDouble(tokens[i]);
+    }
+    catch (NumberFormatException exc) {
+      return null;
+    }
+    return values;
+  }
+
+}
@@ -33,10 +33,9 @@ import ij.process.ImageStatistics;
 import ij.process.LUT;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Properties;
 
 import loci.formats.IFormatReader;
-import loci.plugins.util.RecordedImageProcessor.MethodEntry;
 
 /**
  * Extension of {@link ij.ImagePlus} that supports
@@ -46,11 +45,19 @@ import loci.plugins.util.RecordedImageProcessor.MethodEntry;
  */
 public class VirtualImagePlus extends ImagePlus {
 
+  // -- Constants --
+
+  /** Property holding the image info text. */
+  private static final String INFO = "Info";
+
   // -- Fields --
 
   private IFormatReader r;
   private LUT[] luts;
 
+  /** Display range applied to every slice, or NaN to use each slice's own. */
+  private double displayMin = Double.NaN, displayMax = Double.NaN;
+
   // -- Constructor --
 
   public VirtualImagePlus(String title, ImageStack stack) {
@@ -70,6 +77,13 @@ public class VirtualImagePlus extends ImagePlus {
     this.luts = luts;
   }
 
+  /** Applies the given display range to every slice as it is shown. */
+  public void setFixedDisplayRange(double min, double max) {
+    displayMin = min;
+    displayMax = max;
+    setDisplayRange(min, max);
+  }
+
   // -- ImagePlus API methods --
 
   @Override
@@ -80,10 +94,8 @@ public class VirtualImagePlus extends ImagePlus {
     if (getStack() instanceof BFVirtualStack) {
       stack = (BFVirtualStack) getStack();
       RecordedImageProcessor proc = stack.getRecordedProcessor();
-      List<MethodEntry> methods = stack.getMethodStack();
-      if (methods != null) {
-        proc.applyMethodStack(methods);
-      }
+      if (proc == null) return;
+      stack.applyMethodStack();
       // if we call setProcessor(getTitle(), proc), the type will be set
       // to GRAY32 (regardless of the actual processor type)
       setProcessor(getTitle(), proc.getChild());
@@ -91,19 +103,46 @@ public class VirtualImagePlus extends ImagePlus {
       if (channel >= 0 && luts != null && channel < luts.length) {
         getProcessor().setColorModel(luts[channel]);
       }
+      if (!Double.isNaN(displayMin)) {
+        getProcessor().setMinAndMax(displayMin, displayMax);
+      }
       this.ip = proc;
     }
   }
 
   @Override
   public void close() {
+    final ImageStack stack = getStack();
     super.close();
+    if (stack instanceof BFVirtualStack) ((BFVirtualStack) stack).close();
     try {
       r.close();
     }
     catch (IOException e) { }
   }
 
+  /**
+   * Gets the given property. An "Info" property set to an object other than
+   * a string is rendered as a string on first access, so that long image
+   * info text need not be built unless it is actually viewed.
+   */
+  @Override
+  public Object getProperty(String key) {
+    final Object value = super.getProperty(key);
+    if (INFO.equals(key) && value != null && !(value instanceof String)) {
+      final String info = value.toString();
+      setProperty(key, info);
+      return info;
+    }
+    return value;
+  }
+
+  @Override
+  public Properties getProperties() {
+    getProperty(INFO);
+    return super.getProperties();
+  }
+
   @Override
   public ImageStatistics getStatistics(int mOptions, int nBins,
     double histMin, double histMax)
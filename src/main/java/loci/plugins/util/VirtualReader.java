@@ -27,7 +27,10 @@
 
 package loci.plugins.util;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import loci.formats.IFormatReader;
 import loci.formats.ReaderWrapper;
@@ -43,6 +46,9 @@ public class VirtualReader extends ReaderWrapper {
 
   private int refCount;
 
+  /** Resources to close along with this reader. */
+  private List<Closeable> resources = new ArrayList<Closeable>();
+
   // -- Constructor --
 
   public VirtualReader(IFormatReader r) {
@@ -56,12 +62,24 @@ public class VirtualReader extends ReaderWrapper {
     this.refCount = refCount;
   }
 
+  /**
+   * Registers a resource, such as a pool of additional readers,
+   * to be closed once this reader is closed.
+   */
+  public void addResource(Closeable resource) {
+    resources.add(resource);
+  }
+
   // -- IFormatReader API methods --
 
   @Override
   public void close() throws IOException {
     if (refCount > 0) refCount--;
-    if (refCount == 0) super.close();
+    if (refCount == 0) {
+      super.close();
+      for (Closeable resource : resources) resource.close();
+      resources.clear();
+    }
   }
 
 }
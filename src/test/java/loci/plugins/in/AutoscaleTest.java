@@ -29,6 +29,7 @@ package loci.plugins.in;
 
 import ij.CompositeImage;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.measure.Calibration;
 import ij.process.LUT;
 
@@ -38,11 +39,14 @@ import loci.common.Region;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.plugins.BF;
+import loci.plugins.util.LociPrefs;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import org.slf4j.Logger;
@@ -68,8 +72,24 @@ public class AutoscaleTest {
 
   // -- AutoscaleTest methods --
 
-  @Test
-  public void testAutoscale() {
+  /**
+   * Numbers of threads with which to read planes, so that minima and maxima
+   * are also computed while reading planes and tiles concurrently.
+   */
+  @DataProvider(name = "importThreads")
+  public Object[][] importThreads() {
+    return new Object[][] {{1}, {4}};
+  }
+
+  @AfterMethod
+  public void resetImportThreads() {
+    Prefs.set(LociPrefs.PREF_IMPORT_THREADS, 1);
+  }
+
+  @Test(dataProvider = "importThreads")
+  public void testAutoscale(int threads) {
+    Prefs.set(LociPrefs.PREF_IMPORT_THREADS, threads);
+
     // pixel type shorthands
     final int ui08 = FormatTools.UINT8;
     final int ui16 = FormatTools.UINT16;
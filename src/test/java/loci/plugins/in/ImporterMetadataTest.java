@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.in;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Map;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ReaderWrapper;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ImporterMetadata} merges the reader's metadata tables
+ * as if they had been copied up front.
+ */
+public class ImporterMetadataTest {
+
+  // -- Fields --
+
+  private ImportProcess process;
+  private IFormatReader reader;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws FormatException, IOException {
+    ImporterOptions options = new ImporterOptions();
+    options.setId("test&sizeX=32&sizeY=16.fake");
+    options.setQuiet(true);
+    process = new ImportProcess(options);
+    assertTrue(process.execute());
+
+    final Hashtable<String, Object> global = new Hashtable<String, Object>();
+    global.put("Location", "global");
+    global.put("Key", "global");
+    global.put("Global", "global");
+    final Hashtable<String, Object> series = new Hashtable<String, Object>();
+    series.put("Key", "series");
+    series.put("Location", "series");
+    series.put(" SizeX", "series");
+    reader = new ReaderWrapper(process.getReader()) {
+      @Override
+      public Hashtable<String, Object> getGlobalMetadata() { return global; }
+      @Override
+      public Hashtable<String, Object> getSeriesMetadata() { return series; }
+    };
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    process.getReader().close();
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testPrecedence() {
+    ImporterMetadata meta = new ImporterMetadata(reader, process, false);
+    assertEquals(meta.get("Global"), "global");
+    // series metadata replaces global metadata and the location...
+    assertEquals(meta.get("Key"), "series");
+    assertEquals(meta.get("Location"), "series");
+    // ...but not the core values
+    assertEquals(meta.get(" SizeX"), 32);
+  }
+
+  @Test
+  public void testLinesBeforeMerge() {
+    ImporterMetadata lazy = new ImporterMetadata(reader, process, false);
+    ImporterMetadata merged = new ImporterMetadata(reader, process, false);
+    merged.size();
+    assertEquals(lazy.getMetadataString("\t"),
+      merged.getMetadataString("\t"));
+    assertEquals(lazy.toString(), merged.toString());
+    assertTrue(lazy.toString().contains("Key = series\n"));
+  }
+
+  @Test
+  public void testDefaultMethods() {
+    ImporterMetadata meta = new ImporterMetadata(reader, process, false);
+    assertEquals(meta.getOrDefault("Key", "none"), "series");
+
+    meta = new ImporterMetadata(reader, process, false);
+    assertEquals(meta.putIfAbsent("Key", "put"), "series");
+    assertEquals(meta.get("Key"), "series");
+
+    meta = new ImporterMetadata(reader, process, false);
+    int count = 0;
+    for (Map.Entry<String, Object> e : meta.entrySet()) count++;
+    assertEquals(count, meta.size());
+    assertTrue(meta.containsKey("Global"));
+  }
+
+  @Test
+  public void testModify() {
+    ImporterMetadata meta = new ImporterMetadata(reader, process, false);
+    meta.toString();
+    meta.put("Added", "value");
+    meta.remove("Global");
+    assertTrue(meta.toString().contains("Added = value\n"));
+    assertNull(meta.get("Global"));
+    assertTrue(!meta.toString().contains("Global = "));
+  }
+
+}
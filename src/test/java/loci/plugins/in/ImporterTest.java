@@ -30,6 +30,7 @@ package loci.plugins.in;
 import ij.CompositeImage;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
 
@@ -42,12 +43,15 @@ import loci.common.Region;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.plugins.BF;
+import loci.plugins.util.LociPrefs;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import org.slf4j.Logger;
@@ -2233,11 +2237,27 @@ public class ImporterTest {
       memoryVirtualStackTester(virtual);
   }
 
-  @Test
-  public void testMemorySpecifyRange()
+  /**
+   * Numbers of threads with which to read planes: a single one, and more
+   * than the number of planes of some tests, so that tiles are read too.
+   */
+  @DataProvider(name = "importThreads")
+  public Object[][] importThreads() {
+    return new Object[][] {{1}, {4}};
+  }
+
+  @AfterMethod
+  public void resetImportThreads() {
+    Prefs.set(LociPrefs.PREF_IMPORT_THREADS, 1);
+  }
+
+  @Test(dataProvider = "importThreads")
+  public void testMemorySpecifyRange(int threads)
   {
     // note - can't specify range in a virtualStack - no need to test
 
+    Prefs.set(LociPrefs.PREF_IMPORT_THREADS, threads);
+
     int z,c,t,zFrom,zTo,zBy,cFrom,cTo,cBy,tFrom,tTo,tBy;
 
     // test partial z: from
@@ -2375,11 +2395,13 @@ public class ImporterTest {
     }
   }
 
-  @Test
-  public void testMemoryCrop()
+  @Test(dataProvider = "importThreads")
+  public void testMemoryCrop(int threads)
   {
     // note - can't crop a virtualStack. therefore no need to test it.
 
+    Prefs.set(LociPrefs.PREF_IMPORT_THREADS, threads);
+
     memoryCropTester(203, 255, 55, 20, 3);
     memoryCropTester(203, 184, 55, 40, 2);
     memoryCropTester(101, 76, 0, 25, 4);
@@ -2429,11 +2451,13 @@ public class ImporterTest {
     comboConcatSplitTimepointsTester();
   }
 
-  @Test
-  public void testComboManyOptions()
+  @Test(dataProvider = "importThreads")
+  public void testComboManyOptions(int threads)
   {
     // note - crop and setTStep both don't work with virtualStacks. No need to test virtual here.
 
+    Prefs.set(LociPrefs.PREF_IMPORT_THREADS, threads);
+
     int pixType = FormatTools.UINT16, sizeX = 106, sizeY = 33, sizeZ = 3, sizeC = 5, sizeT = 7;
     int cropOriginX = 0, cropOriginY = 0, cropSizeX = 55, cropSizeY = 16, start = 1, stepBy = 2;
     ChannelOrder swappedOrder = ChannelOrder.CTZ;  // orig is ZCT : this is a deadly swap of all dims
@@ -0,0 +1,172 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.in;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link PlaneIterator} visits exactly the planes within the
+ * chosen ranges, in ascending order, for every dimension order.
+ */
+public class PlaneIteratorTest {
+
+  // -- Fields --
+
+  private ImportProcess process;
+
+  // -- Setup methods --
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    if (process != null) process.getReader().close();
+  }
+
+  // -- Data providers --
+
+  @DataProvider(name = "ranges")
+  public Object[][] ranges() {
+    final String[] orders =
+      {"XYZCT", "XYZTC", "XYCZT", "XYCTZ", "XYTZC", "XYTCZ"};
+    final int[][] ranges = {
+      // zBegin, zEnd, zStep, cBegin, cEnd, cStep, tBegin, tEnd, tStep
+      {0, 4, 1, 0, 2, 1, 0, 3, 1},
+      {1, 4, 2, 0, 2, 2, 1, 2, 1},
+      {4, 4, 1, 1, 2, 1, 0, 3, 3},
+      {0, 3, 3, 2, 2, 1, 3, 3, 1},
+    };
+    final Object[][] data = new Object[orders.length * ranges.length][];
+    for (int o=0; o<orders.length; o++) {
+      for (int r=0; r<ranges.length; r++) {
+        data[o * ranges.length + r] = new Object[] {orders[o], ranges[r]};
+      }
+    }
+    return data;
+  }
+
+  // -- Tests --
+
+  @Test(dataProvider = "ranges")
+  public void testRanges(String order, int[] range)
+    throws FormatException, IOException
+  {
+    final ImporterOptions options =
+      createOptions("test&sizeZ=5&sizeC=3&sizeT=4&dimOrder=" + order + ".fake");
+    options.setZBegin(0, range[0]);
+    options.setZEnd(0, range[1]);
+    options.setZStep(0, range[2]);
+    options.setCBegin(0, range[3]);
+    options.setCEnd(0, range[4]);
+    options.setCStep(0, range[5]);
+    options.setTBegin(0, range[6]);
+    options.setTEnd(0, range[7]);
+    options.setTStep(0, range[8]);
+    execute(options);
+
+    // select the planes by brute force
+    final IFormatReader reader = process.getReader();
+    final List<Integer> expected = new ArrayList<Integer>();
+    for (int no=0; no<reader.getImageCount(); no++) {
+      final int[] zct = reader.getZCTCoords(no);
+      if (inRange(zct[0], range[0], range[1], range[2]) &&
+        inRange(zct[1], range[3], range[4], range[5]) &&
+        inRange(zct[2], range[6], range[7], range[8]))
+      {
+        expected.add(no);
+      }
+    }
+
+    final PlaneIterator planes = new PlaneIterator(process, 0);
+    final List<Integer> actual = new ArrayList<Integer>();
+    while (planes.hasNext()) actual.add(planes.next());
+    assertEquals(actual, expected);
+    assertEquals(planes.getCount(), expected.size());
+    assertEquals(planes.getCount(),
+      process.getZCount(0) * process.getCCount(0) * process.getTCount(0));
+  }
+
+  @Test
+  public void testDefaultRanges() throws FormatException, IOException {
+    execute(createOptions("test&sizeZ=2&sizeC=3&sizeT=2.fake"));
+    final PlaneIterator planes = new PlaneIterator(process, 0);
+    assertEquals(planes.getCount(), 12);
+    for (int no=0; no<12; no++) {
+      assertTrue(planes.hasNext());
+      assertEquals(planes.next(), no);
+    }
+    assertFalse(planes.hasNext());
+  }
+
+  @Test(expectedExceptions = NoSuchElementException.class)
+  public void testExhausted() throws FormatException, IOException {
+    final ImporterOptions options = createOptions("test&sizeZ=3.fake");
+    options.setZBegin(0, 1);
+    options.setZEnd(0, 1);
+    execute(options);
+    final PlaneIterator planes = new PlaneIterator(process, 0);
+    assertEquals(planes.next(), 1);
+    assertFalse(planes.hasNext());
+    planes.next();
+  }
+
+  // -- Helper methods --
+
+  private ImporterOptions createOptions(String id) throws IOException {
+    final ImporterOptions options = new ImporterOptions();
+    options.setId(id);
+    options.setQuiet(true);
+    return options;
+  }
+
+  private void execute(ImporterOptions options)
+    throws FormatException, IOException
+  {
+    process = new ImportProcess(options);
+    assertTrue(process.execute());
+    process.getReader().setSeries(0);
+  }
+
+  private static boolean inRange(int value, int begin, int end, int step) {
+    return value >= begin && value <= end && (value - begin) % step == 0;
+  }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.out;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import loci.formats.FormatException;
+import loci.plugins.LociExporter;
+import loci.plugins.util.ImageProcessorReader;
+import loci.plugins.util.LociPrefs;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that stacks written by the Bio-Formats Exporter read back with the
+ * same pixels, when written whole or in tiles, split into several files,
+ * or with sub-resolution levels.
+ */
+public class ExporterTest {
+
+  // -- Constants --
+
+  private static final int WIDTH = 70, HEIGHT = 45;
+  private static final int SIZE_Z = 2, SIZE_T = 3;
+
+  // -- Fields --
+
+  private File dir;
+
+  // -- ExporterTest methods --
+
+  /** Numbers of threads with which to convert and write planes. */
+  @DataProvider(name = "exportThreads")
+  public Object[][] exportThreads() {
+    return new Object[][] {{1}, {4}};
+  }
+
+  @BeforeMethod
+  public void createDirectory() throws IOException {
+    dir = File.createTempFile("exporter-test", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @AfterMethod
+  public void deleteDirectory() {
+    Prefs.set(LociPrefs.PREF_EXPORT_THREADS, 1);
+    final File[] files = dir.listFiles();
+    if (files != null) for (File file : files) file.delete();
+    dir.delete();
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testExport(int threads) throws FormatException, IOException {
+    final ImagePlus imp = createImage();
+    final File file = new File(dir, "whole.ome.tif");
+    export(imp, file, "", threads);
+    assertPlanes(file, imp, 0, 1, imp.getStackSize());
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testTiledExport(int threads)
+    throws FormatException, IOException
+  {
+    final ImagePlus imp = createImage();
+    final File file = new File(dir, "tiled.ome.tif");
+    // NB: The planes are not a whole number of tiles wide or high.
+    export(imp, file, "tileSize=16", threads);
+    assertPlanes(file, imp, 0, 1, imp.getStackSize());
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testTiledNonTiffExport(int threads)
+    throws FormatException, IOException
+  {
+    final ImagePlus imp = createImage();
+    final File file = new File(dir, "tiled.ics");
+    // NB: Only TIFF based writers write tiles; others write whole planes.
+    export(imp, file, "tileSize=16", threads);
+    assertPlanes(file, imp, 0, 1, imp.getStackSize());
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testSplitExport(int threads)
+    throws FormatException, IOException
+  {
+    final ImagePlus imp = createImage();
+    export(imp, new File(dir, "split.tif"), "splitT=true", threads);
+
+    final File[] files = dir.listFiles();
+    assertNotNull(files);
+    assertEquals(files.length, SIZE_T);
+    Arrays.sort(files);
+    for (int t=0; t<SIZE_T; t++) {
+      assertPlanes(files[t], imp, 0, t * SIZE_Z + 1, SIZE_Z);
+    }
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testSplitPlanesExport(int threads)
+    throws FormatException, IOException
+  {
+    final ImagePlus imp = createImage();
+    // NB: One file per plane, more files than there are threads.
+    export(imp, new File(dir, "split.tif"), "splitZ=true splitT=true",
+      threads);
+
+    final File[] files = dir.listFiles();
+    assertNotNull(files);
+    assertEquals(files.length, SIZE_Z * SIZE_T);
+    Arrays.sort(files);
+    for (int z=0; z<SIZE_Z; z++) {
+      for (int t=0; t<SIZE_T; t++) {
+        assertPlanes(files[z * SIZE_T + t], imp, 0, t * SIZE_Z + z + 1, 1);
+      }
+    }
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testTiledSplitExport(int threads)
+    throws FormatException, IOException
+  {
+    final ImagePlus imp = createImage();
+    export(imp, new File(dir, "split.tif"), "splitT=true tileSize=16",
+      threads);
+
+    final File[] files = dir.listFiles();
+    assertNotNull(files);
+    assertEquals(files.length, SIZE_T);
+    Arrays.sort(files);
+    for (int t=0; t<SIZE_T; t++) {
+      assertPlanes(files[t], imp, 0, t * SIZE_Z + 1, SIZE_Z);
+    }
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testPyramidExport(int threads)
+    throws FormatException, IOException
+  {
+    final int levels = 2;
+    final ImagePlus imp = createImage();
+    final File file = new File(dir, "pyramid.ome.tif");
+    export(imp, file, "pyramidLevels=" + levels + " tileSize=16", threads);
+
+    assertPlanes(file, imp, 0, 1, imp.getStackSize());
+    // each level is downsampled from the previous one, plane by plane
+    ImagePlus level = imp;
+    for (int l=1; l<=levels; l++) {
+      level = downsample(level);
+      assertPlanes(file, level, l, 1, level.getStackSize());
+    }
+  }
+
+  @Test(dataProvider = "exportThreads")
+  public void testUntiledPyramidExport(int threads)
+    throws FormatException, IOException
+  {
+    final int levels = 3;
+    final ImagePlus imp = createImage();
+    final File file = new File(dir, "pyramid.ome.tif");
+    export(imp, file, "pyramidLevels=" + levels, threads);
+
+    assertPlanes(file, imp, 0, 1, imp.getStackSize());
+    ImagePlus level = imp;
+    for (int l=1; l<=levels; l++) {
+      level = downsample(level);
+      assertPlanes(file, level, l, 1, level.getStackSize());
+    }
+  }
+
+  @Test
+  public void testPyramidNonOMETiffExport()
+    throws FormatException, IOException
+  {
+    final ImagePlus imp = createImage();
+    final File file = new File(dir, "pyramid.tif");
+    // NB: Pyramid levels are only written to OME-TIFF.
+    export(imp, file, "pyramidLevels=2", 1);
+
+    assertPlanes(file, imp, 0, 1, imp.getStackSize());
+    try (ImageProcessorReader r = new ImageProcessorReader()) {
+      r.setId(file.getAbsolutePath());
+      assertEquals(r.getSeriesCount(), 1);
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Creates a 16-bit hyperstack in which each pixel value depends on its
+   * position and plane.
+   */
+  private ImagePlus createImage() {
+    final ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+    for (int no=0; no<SIZE_Z*SIZE_T; no++) {
+      final short[] pixels = new short[WIDTH * HEIGHT];
+      for (int y=0; y<HEIGHT; y++) {
+        for (int x=0; x<WIDTH; x++) {
+          pixels[y * WIDTH + x] = (short) (1000 * no + 10 * y + x);
+        }
+      }
+      stack.addSlice("plane " + no, new ShortProcessor(WIDTH, HEIGHT, pixels,
+        null));
+    }
+    final ImagePlus imp = new ImagePlus("exporter-test", stack);
+    imp.setDimensions(1, SIZE_Z, SIZE_T);
+    imp.setOpenAsHyperStack(true);
+    return imp;
+  }
+
+  /** Downsamples each plane of the given image as the Exporter does. */
+  private ImagePlus downsample(ImagePlus imp) {
+    final int width = Math.max(1, imp.getWidth() / 2);
+    final int height = Math.max(1, imp.getHeight() / 2);
+    final ImageStack stack = new ImageStack(width, height);
+    for (int n=1; n<=imp.getStackSize(); n++) {
+      final ImageProcessor ip = imp.getStack().getProcessor(n);
+      ip.setInterpolationMethod(ImageProcessor.BILINEAR);
+      stack.addSlice(null, ip.resize(width, height, true));
+    }
+    return new ImagePlus(imp.getTitle(), stack);
+  }
+
+  /** Exports the given image without any dialogs. */
+  private void export(ImagePlus imp, File file, String options, int threads) {
+    Prefs.set(LociPrefs.PREF_EXPORT_THREADS, threads);
+    final LociExporter plugin = new LociExporter();
+    plugin.arg = "outfile=[" + file.getAbsolutePath() + "] windowless=true " +
+      "compression=Uncompressed saveRoi=false " + options;
+    new Exporter(plugin, imp).run();
+  }
+
+  /**
+   * Asserts that the given series of the file holds the given number of
+   * planes of the image, starting from the given slice.
+   */
+  private void assertPlanes(File file, ImagePlus imp, int series, int first,
+    int count) throws FormatException, IOException
+  {
+    try (ImageProcessorReader r = new ImageProcessorReader()) {
+      r.setId(file.getAbsolutePath());
+      r.setSeries(series);
+      assertEquals(r.getSizeX(), imp.getWidth());
+      assertEquals(r.getSizeY(), imp.getHeight());
+      assertEquals(r.getImageCount(), count);
+      for (int no=0; no<count; no++) {
+        final ImageProcessor expected = imp.getStack().getProcessor(first + no);
+        final ImageProcessor actual = r.openProcessors(no)[0];
+        assertTrue(Arrays.equals((short[]) actual.getPixels(),
+          (short[]) expected.getPixels()), file.getName() + ", series " +
+          series + ", plane " + no);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.cache.CacheException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how {@link CacheBudget} shares its budget among the caches
+ * registered with it.
+ */
+public class CacheBudgetTest {
+
+  // -- Constants --
+
+  private static final long PLANE_BYTES = 1000;
+
+  // -- Fields --
+
+  private long oldBudget;
+  private List<BudgetedStrategy> strategies;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() {
+    oldBudget = CacheBudget.getBudget();
+    strategies = new ArrayList<BudgetedStrategy>();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    for (BudgetedStrategy s : strategies) CacheBudget.unregister(s);
+    CacheBudget.setBudget(oldBudget);
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testUnregistered() {
+    CacheBudget.setBudget(0);
+    BudgetedStrategy s = new BudgetedStrategy(new int[] {10}, PLANE_BYTES);
+    assertEquals(CacheBudget.request(s, 7), 7);
+  }
+
+  @Test
+  public void testWithinBudget() {
+    CacheBudget.setBudget(10 * PLANE_BYTES);
+    BudgetedStrategy s = createStrategy(null);
+    assertEquals(CacheBudget.request(s, 4), 4);
+    assertEquals(CacheBudget.getAllotted(), 4 * PLANE_BYTES);
+    // a repeated request replaces the earlier allotment
+    assertEquals(CacheBudget.request(s, 2), 2);
+    assertEquals(CacheBudget.getAllotted(), 2 * PLANE_BYTES);
+  }
+
+  @Test
+  public void testAtLeastOnePlane() {
+    CacheBudget.setBudget(0);
+    BudgetedStrategy s = createStrategy(null);
+    assertEquals(CacheBudget.request(s, 5), 1);
+  }
+
+  @Test
+  public void testUnregister() {
+    CacheBudget.setBudget(10 * PLANE_BYTES);
+    BudgetedStrategy s = createStrategy(null);
+    CacheBudget.request(s, 6);
+    CacheBudget.unregister(s);
+    assertEquals(CacheBudget.getAllotted(), 0);
+  }
+
+  @Test
+  public void testTrimLeastRecentlyUsed() throws InterruptedException {
+    CacheBudget.setBudget(10 * PLANE_BYTES);
+    CountDownLatch trimmedOld = new CountDownLatch(1);
+    CountDownLatch trimmedNew = new CountDownLatch(1);
+    BudgetedStrategy old = createStrategy(trimmedOld);
+    BudgetedStrategy recent = createStrategy(trimmedNew);
+    BudgetedStrategy current = createStrategy(null);
+    assertEquals(CacheBudget.request(old, 4), 4);
+    assertEquals(CacheBudget.request(recent, 4), 4);
+
+    // only the least recently used cache is cut back, to a single plane
+    assertEquals(CacheBudget.request(current, 5), 5);
+    assertTrue(trimmedOld.await(10, TimeUnit.SECONDS));
+    assertEquals(trimmedNew.getCount(), 1);
+    assertEquals(CacheBudget.getAllotted(), 10 * PLANE_BYTES);
+
+    // once the others are down to a single plane, requests are cut short
+    assertEquals(CacheBudget.request(current, 9), 8);
+    assertTrue(trimmedNew.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testShrinkBudget() throws InterruptedException {
+    CacheBudget.setBudget(10 * PLANE_BYTES);
+    CountDownLatch trimmed = new CountDownLatch(1);
+    BudgetedStrategy s = createStrategy(trimmed);
+    assertEquals(CacheBudget.request(s, 8), 8);
+    CacheBudget.setBudget(2 * PLANE_BYTES);
+    assertTrue(trimmed.await(10, TimeUnit.SECONDS));
+    assertEquals(CacheBudget.getAllotted(), PLANE_BYTES);
+  }
+
+  @Test
+  public void testLoadList() throws CacheException {
+    CacheBudget.setBudget(3 * PLANE_BYTES);
+    BudgetedStrategy s = createStrategy(null);
+    s.setRange(4, 0);
+    int[][] loadList = s.getLoadList(new int[] {5});
+    assertEquals(loadList.length, 3);
+    assertEquals(loadList[0], new int[] {5});
+  }
+
+  // -- Helper methods --
+
+  /** Creates and registers a strategy whose trimmer counts down the latch. */
+  private BudgetedStrategy createStrategy(final CountDownLatch trimmed) {
+    BudgetedStrategy s = new BudgetedStrategy(new int[] {10}, PLANE_BYTES);
+    if (trimmed != null) {
+      s.setTrimmer(new Runnable() {
+        @Override
+        public void run() {
+          trimmed.countDown();
+        }
+      });
+    }
+    CacheBudget.register(s);
+    strategies.add(s);
+    return s;
+  }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import ij.Prefs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.Memoizer;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how {@link MemoCache} keys its entries, and evicts them by age
+ * and by the total size of the cache.
+ */
+public class MemoCacheTest {
+
+  // -- Constants --
+
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  // -- Fields --
+
+  private File dir;
+  private File root;
+  private File data;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = File.createTempFile("bio-formats-memo", "");
+    dir.delete();
+    dir.mkdir();
+    root = new File(dir, "cache");
+    data = new File(dir, "data.raw");
+    write(data, 16);
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE, true);
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_DIR, root.getAbsolutePath());
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE, false);
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_DIR, "");
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_SIZE, 1024);
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_AGE, 30);
+    delete(dir);
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testDisabled() {
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE, false);
+    assertNull(MemoCache.getDirectory(data.getAbsolutePath(), ""));
+    IFormatReader r = new ImageReader();
+    assertSame(MemoCache.wrap(r, data.getAbsolutePath(), ""), r);
+  }
+
+  @Test
+  public void testNotLocal() {
+    assertNull(MemoCache.getDirectory("test.fake", ""));
+    assertNull(MemoCache.getDirectory(null, ""));
+  }
+
+  @Test
+  public void testEntries() throws IOException {
+    final String id = data.getAbsolutePath();
+    final File entry = MemoCache.getDirectory(id, "a");
+    assertNotNull(entry);
+    assertTrue(entry.isDirectory());
+    assertEquals(entry.getParentFile(), root);
+    assertEquals(MemoCache.getDirectory(id, "a"), entry);
+
+    // a different configuration or file contents lead to a new entry
+    assertFalse(MemoCache.getDirectory(id, "b").equals(entry));
+    write(data, 32);
+    assertFalse(MemoCache.getDirectory(id, "a").equals(entry));
+  }
+
+  @Test
+  public void testMemoize() throws IOException {
+    final File other = new File(dir, "other.raw");
+    write(other, 16);
+    final IFormatReader r = MemoCache.memoize(new ImageReader());
+    assertTrue(r instanceof Memoizer);
+    final Memoizer memo = (Memoizer) r;
+
+    // the same reader resolves the entry of each file it is used on
+    final File file = memo.getMemoFile(data.getAbsolutePath());
+    final File otherFile = memo.getMemoFile(other.getAbsolutePath());
+    assertNotNull(file);
+    assertNotNull(otherFile);
+    assertEquals(file.getParentFile().getParentFile(), root);
+    assertEquals(otherFile.getParentFile().getParentFile(), root);
+    assertFalse(file.getParentFile().equals(otherFile.getParentFile()));
+
+    // as do different reader options
+    r.setGroupFiles(!r.isGroupFiles());
+    assertFalse(memo.getMemoFile(data.getAbsolutePath()).equals(file));
+
+    assertNull(memo.getMemoFile("test.fake"));
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE, false);
+    assertNull(memo.getMemoFile(data.getAbsolutePath()));
+  }
+
+  @Test
+  public void testEvictExpired() throws IOException {
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_AGE, 30);
+    final long now = System.currentTimeMillis();
+    final File expired = createEntry("expired", 100, now - 31 * DAY);
+    final File recent = createEntry("recent", 100, now - 29 * DAY);
+    MemoCache.evict();
+    assertFalse(expired.exists());
+    assertTrue(recent.exists());
+  }
+
+  @Test
+  public void testKeepRegardlessOfAge() throws IOException {
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_AGE, 0);
+    final File old = createEntry("old", 100, 0);
+    MemoCache.evict();
+    assertTrue(old.exists());
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws IOException {
+    Prefs.set(LociPrefs.PREF_MEMO_CACHE_SIZE, 1);
+    final long now = System.currentTimeMillis();
+    final File oldest = createEntry("oldest", 400000, now - 3000);
+    final File older = createEntry("older", 400000, now - 2000);
+    final File newest = createEntry("newest", 400000, now - 1000);
+    MemoCache.evict();
+    assertFalse(oldest.exists());
+    assertTrue(older.exists());
+    assertTrue(newest.exists());
+  }
+
+  // -- Helper methods --
+
+  /** Creates a cache entry holding a file of the given length. */
+  private File createEntry(String name, int length, long lastModified)
+    throws IOException
+  {
+    final File entry = new File(root, name);
+    entry.mkdirs();
+    write(new File(entry, ".data.raw.bfmemo"), length);
+    entry.setLastModified(lastModified);
+    return entry;
+  }
+
+  private static void write(File file, int length) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[length]);
+    }
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    file.delete();
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.IOException;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link OffHeapPlaneStore} gives back the planes stored in it,
+ * in direct memory and in a memory-mapped scratch file.
+ */
+public class OffHeapPlaneStoreTest {
+
+  // -- Constants --
+
+  private static final int WIDTH = 13, HEIGHT = 7;
+
+  // -- Data providers --
+
+  @DataProvider(name = "mapped")
+  public Object[][] mapped() {
+    return new Object[][] {{false}, {true}};
+  }
+
+  // -- Tests --
+
+  @Test(dataProvider = "mapped")
+  public void testBytes(boolean mapped) throws IOException {
+    OffHeapPlaneStore store = createStore(1, 3, mapped);
+    try {
+      for (int i=0; i<3; i++) store.put(i, createProcessor(1, i));
+      for (int i=0; i<3; i++) assertPlane(store.get(i), createProcessor(1, i));
+    }
+    finally {
+      store.close();
+    }
+  }
+
+  @Test(dataProvider = "mapped")
+  public void testShorts(boolean mapped) throws IOException {
+    OffHeapPlaneStore store = createStore(2, 3, mapped);
+    try {
+      for (int i=0; i<3; i++) store.put(i, createProcessor(2, i));
+      for (int i=0; i<3; i++) assertPlane(store.get(i), createProcessor(2, i));
+    }
+    finally {
+      store.close();
+    }
+  }
+
+  @Test(dataProvider = "mapped")
+  public void testFloats(boolean mapped) throws IOException {
+    OffHeapPlaneStore store = createStore(4, 3, mapped);
+    try {
+      for (int i=0; i<3; i++) store.put(i, createProcessor(4, i));
+      for (int i=0; i<3; i++) assertPlane(store.get(i), createProcessor(4, i));
+    }
+    finally {
+      store.close();
+    }
+  }
+
+  @Test(dataProvider = "mapped")
+  public void testReplace(boolean mapped) throws IOException {
+    OffHeapPlaneStore store = createStore(2, 2, mapped);
+    try {
+      store.put(0, createProcessor(2, 0));
+      store.put(0, createProcessor(2, 5));
+      assertPlane(store.get(0), createProcessor(2, 5));
+    }
+    finally {
+      store.close();
+    }
+  }
+
+  @Test(dataProvider = "mapped")
+  public void testLeastRecentlyUsed(boolean mapped) throws IOException {
+    OffHeapPlaneStore store = createStore(1, 2, mapped);
+    try {
+      store.put(0, createProcessor(1, 0));
+      store.put(1, createProcessor(1, 1));
+      assertPlane(store.get(0), createProcessor(1, 0));
+      store.put(2, createProcessor(1, 2));
+      assertTrue(store.contains(0));
+      assertFalse(store.contains(1));
+      assertNull(store.get(1));
+      assertPlane(store.get(2), createProcessor(1, 2));
+    }
+    finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void testMismatch() throws IOException {
+    OffHeapPlaneStore store = createStore(2, 2, false);
+    try {
+      store.put(0, createProcessor(1, 0));
+      store.put(1, new ShortProcessor(WIDTH + 1, HEIGHT));
+      assertFalse(store.contains(0));
+      assertFalse(store.contains(1));
+    }
+    finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void testDisabled() throws IOException {
+    OffHeapPlaneStore store = new OffHeapPlaneStore(WIDTH, HEIGHT, 1,
+      WIDTH * HEIGHT - 1, false);
+    assertFalse(store.isEnabled());
+    store.put(0, createProcessor(1, 0));
+    assertNull(store.get(0));
+    store.close();
+  }
+
+  @Test(dataProvider = "mapped")
+  public void testClose(boolean mapped) throws IOException {
+    OffHeapPlaneStore store = createStore(1, 2, mapped);
+    store.put(0, createProcessor(1, 0));
+    store.close();
+    assertFalse(store.contains(0));
+    assertNull(store.get(0));
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testPlaneTooLarge() throws IOException {
+    new OffHeapPlaneStore(65536, 65536, 1, Long.MAX_VALUE, false);
+  }
+
+  // -- Helper methods --
+
+  private OffHeapPlaneStore createStore(int bpp, int planes, boolean mapped)
+    throws IOException
+  {
+    final OffHeapPlaneStore store = new OffHeapPlaneStore(WIDTH, HEIGHT, bpp,
+      (long) planes * WIDTH * HEIGHT * bpp, mapped);
+    assertTrue(store.isEnabled());
+    return store;
+  }
+
+  /** Creates a processor whose pixel values depend on the given seed. */
+  private ImageProcessor createProcessor(int bpp, int seed) {
+    final ImageProcessor ip = bpp == 1 ? new ByteProcessor(WIDTH, HEIGHT) :
+      bpp == 2 ? new ShortProcessor(WIDTH, HEIGHT) :
+      new FloatProcessor(WIDTH, HEIGHT);
+    for (int y=0; y<HEIGHT; y++) {
+      for (int x=0; x<WIDTH; x++) {
+        ip.putPixelValue(x, y, (seed * 31 + y * WIDTH + x) % 251);
+      }
+    }
+    if (bpp == 4) ip.putPixelValue(0, 0, -1.5);
+    return ip;
+  }
+
+  private void assertPlane(ImageProcessor actual, ImageProcessor expected) {
+    assertEquals(actual.getClass(), expected.getClass());
+    assertEquals(actual.getWidth(), expected.getWidth());
+    assertEquals(actual.getHeight(), expected.getHeight());
+    for (int y=0; y<HEIGHT; y++) {
+      for (int x=0; x<WIDTH; x++) {
+        assertEquals(actual.getPixelValue(x, y), expected.getPixelValue(x, y),
+          "(" + x + ", " + y + ")");
+      }
+    }
+  }
+
+}
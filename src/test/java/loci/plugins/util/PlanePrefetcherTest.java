@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import loci.formats.FormatException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a {@link PlanePrefetcher} reads the neighbors of the current
+ * position ahead, keeps them while they remain neighbors, and reads no more
+ * of them than the cache budget allows.
+ */
+public class PlanePrefetcherTest {
+
+  // -- Constants --
+
+  private static final int SIZE_Z = 4, SIZE_T = 3;
+  private static final String ID = "test&sizeX=16&sizeY=16&sizeZ=" + SIZE_Z +
+    "&sizeT=" + SIZE_T + ".fake";
+  private static final int[] LENGTHS = {SIZE_Z, SIZE_T};
+  private static final long PLANE_BYTES = 16 * 16;
+
+  // -- Fields --
+
+  private long oldBudget;
+  private AtomicIntegerArray reads;
+  private ReaderPool pool;
+  private ImageProcessorReader reader;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws FormatException, IOException {
+    oldBudget = CacheBudget.getBudget();
+    reads = new AtomicIntegerArray(SIZE_Z * SIZE_T);
+    pool = new ReaderPool(new ReaderPool.ReaderFactory() {
+      @Override
+      public ImageProcessorReader createReader()
+        throws FormatException, IOException
+      {
+        ImageProcessorReader r = new ImageProcessorReader() {
+          @Override
+          public ImageProcessor[] openProcessors(int no)
+            throws FormatException, IOException
+          {
+            reads.incrementAndGet(no);
+            return super.openProcessors(no);
+          }
+        };
+        r.setId(ID);
+        return r;
+      }
+    }, 2);
+    reader = new ImageProcessorReader();
+    reader.setId(ID);
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    pool.close();
+    reader.close();
+    CacheBudget.setBudget(oldBudget);
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testEnabled() {
+    PlanePrefetcher prefetcher = createPrefetcher(0, 0);
+    assertFalse(prefetcher.isEnabled());
+    prefetcher.close();
+    prefetcher = createPrefetcher(0, 1);
+    assertTrue(prefetcher.isEnabled());
+    prefetcher.close();
+  }
+
+  @Test
+  public void testNeighbors() throws FormatException, IOException {
+    PlanePrefetcher prefetcher = createPrefetcher(1, 1);
+    try {
+      prefetcher.prefetch(new int[] {1, 1});
+      for (int index : new int[] {index(2, 1), index(0, 1), index(1, 2),
+        index(1, 0)})
+      {
+        assertPlane(prefetcher.take(index), index);
+      }
+      // neither the current plane nor planes further away are read ahead
+      assertNull(prefetcher.take(index(1, 1)));
+      assertNull(prefetcher.take(index(3, 1)));
+      assertNull(prefetcher.take(index(2, 2)));
+    }
+    finally {
+      prefetcher.close();
+    }
+  }
+
+  @Test
+  public void testKeepNeighbors() throws FormatException, IOException {
+    PlanePrefetcher prefetcher = createPrefetcher(1, 1);
+    try {
+      prefetcher.prefetch(new int[] {1, 1});
+      assertPlane(prefetcher.take(index(2, 1)), index(2, 1));
+      assertPlane(prefetcher.take(index(1, 2)), index(1, 2));
+
+      // stepping ahead keeps the new current plane, even though taken...
+      prefetcher.prefetch(new int[] {2, 1});
+      assertPlane(prefetcher.take(index(2, 1)), index(2, 1));
+      assertEquals(reads.get(index(2, 1)), 1);
+      // ...and discards the planes which are no longer neighbors
+      assertNull(prefetcher.take(index(1, 2)));
+      assertNull(prefetcher.take(index(0, 1)));
+
+      // stepping back does not read the remaining neighbors again
+      prefetcher.prefetch(new int[] {1, 1});
+      assertPlane(prefetcher.take(index(2, 1)), index(2, 1));
+      assertEquals(reads.get(index(2, 1)), 1);
+    }
+    finally {
+      prefetcher.close();
+    }
+  }
+
+  @Test
+  public void testBudget() throws FormatException, IOException {
+    // room for the current plane and its two nearest neighbors
+    CacheBudget.setBudget(3 * PLANE_BYTES);
+    PlanePrefetcher prefetcher = createPrefetcher(2, 1);
+    try {
+      prefetcher.prefetch(new int[] {1, 1});
+      assertPlane(prefetcher.take(index(2, 1)), index(2, 1));
+      assertPlane(prefetcher.take(index(0, 1)), index(0, 1));
+      assertNull(prefetcher.take(index(1, 2)));
+      assertNull(prefetcher.take(index(3, 1)));
+    }
+    finally {
+      prefetcher.close();
+    }
+  }
+
+  @Test
+  public void testClose() {
+    PlanePrefetcher prefetcher = createPrefetcher(1, 1);
+    prefetcher.prefetch(new int[] {1, 1});
+    prefetcher.close();
+    assertNull(prefetcher.take(index(2, 1)));
+    prefetcher.prefetch(new int[] {2, 1});
+    assertNull(prefetcher.take(index(3, 1)));
+  }
+
+  // -- Helper methods --
+
+  private PlanePrefetcher createPrefetcher(int depthZ, int depthT) {
+    return new PlanePrefetcher(pool, 0, LENGTHS,
+      new int[] {depthZ, depthT}, PLANE_BYTES);
+  }
+
+  private static int index(int z, int t) {
+    return z + SIZE_Z * t;
+  }
+
+  private void assertPlane(ImageProcessor ip, int index)
+    throws FormatException, IOException
+  {
+    assertNotNull(ip, "plane #" + index);
+    ImageProcessor expected = reader.openProcessors(index)[0];
+    assertTrue(Arrays.equals((byte[]) ip.getPixels(),
+      (byte[]) expected.getPixels()), "plane #" + index);
+  }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.formats.FormatException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a {@link ReaderPool} hands out each of its reader stacks
+ * to a single thread at a time, creating no more than its maximum.
+ */
+public class ReaderPoolTest {
+
+  // -- Constants --
+
+  private static final String ID = "test&sizeX=16&sizeY=16&sizeZ=4.fake";
+
+  // -- Tests --
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new ReaderPool(new Factory(), 0);
+  }
+
+  @Test
+  public void testReuse() throws FormatException, IOException {
+    Factory factory = new Factory();
+    ReaderPool pool = new ReaderPool(factory, 2);
+    ImageProcessorReader r = pool.acquire();
+    assertNotNull(r);
+    pool.release(r);
+    assertSame(pool.acquire(), r);
+    assertEquals(factory.created.get(), 1);
+    assertEquals(pool.getSize(), 1);
+    pool.close();
+  }
+
+  @Test
+  public void testWaitForRelease() throws Exception {
+    final ReaderPool pool = new ReaderPool(new Factory(), 2);
+    final ImageProcessorReader r1 = pool.acquire();
+    final ImageProcessorReader r2 = pool.acquire();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<ImageProcessorReader> third =
+        executor.submit(new Callable<ImageProcessorReader>() {
+          @Override
+          public ImageProcessorReader call() throws Exception {
+            return pool.acquire();
+          }
+        });
+      try {
+        third.get(200, TimeUnit.MILLISECONDS);
+        fail("Expected the pool to be full");
+      }
+      catch (TimeoutException exc) { }
+      pool.release(r2);
+      assertSame(third.get(10, TimeUnit.SECONDS), r2);
+      assertEquals(pool.getSize(), 2);
+    }
+    finally {
+      executor.shutdownNow();
+      pool.release(r1);
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testFactoryFailure() throws FormatException, IOException {
+    Factory factory = new Factory();
+    ReaderPool pool = new ReaderPool(factory, 1);
+    factory.fail = true;
+    assertNull(pool.acquire());
+    assertEquals(pool.getSize(), 0);
+
+    // the failed attempt does not count towards the pool's size
+    factory.fail = false;
+    assertNotNull(pool.acquire());
+    pool.close();
+  }
+
+  @Test
+  public void testClose() throws FormatException, IOException {
+    ReaderPool pool = new ReaderPool(new Factory(), 2);
+    ImageProcessorReader idle = pool.acquire();
+    ImageProcessorReader busy = pool.acquire();
+    pool.release(idle);
+    pool.close();
+    assertNull(idle.getCurrentFile());
+    assertNotNull(busy.getCurrentFile());
+    pool.release(busy);
+    assertNull(busy.getCurrentFile());
+    assertEquals(pool.getSize(), 0);
+    try {
+      pool.acquire();
+      fail("Expected the pool to be closed");
+    }
+    catch (IOException exc) { }
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    final int maxSize = 3;
+    final ReaderPool pool = new ReaderPool(new Factory(), maxSize);
+    final Set<ImageProcessorReader> inUse =
+      Collections.synchronizedSet(new HashSet<ImageProcessorReader>());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i=0; i<8; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            for (int n=0; n<50; n++) {
+              ImageProcessorReader r = pool.acquire();
+              if (!inUse.add(r)) return false;
+              try {
+                r.openProcessors(n % r.getImageCount());
+              }
+              finally {
+                inUse.remove(r);
+                pool.release(r);
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get(60, TimeUnit.SECONDS));
+      }
+      assertTrue(pool.getSize() <= maxSize);
+      assertTrue(inUse.isEmpty());
+    }
+    finally {
+      executor.shutdownNow();
+      pool.close();
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Creates reader stacks on a fake dataset, counting them. */
+  private static class Factory implements ReaderPool.ReaderFactory {
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile boolean fail;
+
+    @Override
+    public ImageProcessorReader createReader()
+      throws FormatException, IOException
+    {
+      if (fail) return null;
+      ImageProcessorReader r = new ImageProcessorReader();
+      r.setId(ID);
+      created.incrementAndGet();
+      return r;
+    }
+  }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests that edits recorded by a {@link RecordedImageProcessor} are replayed
+ * upon other planes as if they had been made to them directly.
+ */
+public class RecordedImageProcessorTest {
+
+  // -- Constants --
+
+  private static final int WIDTH = 11, HEIGHT = 5;
+
+  // -- Tests --
+
+  @Test
+  public void testReplay() {
+    final int[] lut = new int[256];
+    for (int i=0; i<lut.length; i++) lut[i] = 255 - i;
+
+    RecordedImageProcessor recorded =
+      new RecordedImageProcessor(createProcessor(0, 1));
+    edit(recorded, lut);
+
+    ImageProcessor expected = createProcessor(1, 1);
+    edit(expected, lut);
+    ImageProcessor actual = replay(recorded.getMethodStack(),
+      createProcessor(1, 1));
+    assertPixels(actual, expected);
+  }
+
+  @Test
+  public void testReplayRepeatedly() {
+    RecordedImageProcessor recorded =
+      new RecordedImageProcessor(createProcessor(0, 1));
+    recorded.add(3);
+    recorded.flipVertical();
+    final List<RecordedImageProcessor.MethodEntry> stack =
+      recorded.getMethodStack();
+
+    for (int seed=1; seed<4; seed++) {
+      ImageProcessor expected = createProcessor(seed, 1);
+      expected.add(3);
+      expected.flipVertical();
+      assertPixels(replay(stack, createProcessor(seed, 1)), expected);
+    }
+  }
+
+  @Test
+  public void testReplayOtherTypes() {
+    RecordedImageProcessor recorded =
+      new RecordedImageProcessor(createProcessor(0, 1));
+    recorded.add(7);
+    recorded.multiply(2);
+    recorded.flipHorizontal();
+    final List<RecordedImageProcessor.MethodEntry> stack =
+      recorded.getMethodStack();
+
+    // NB: The calls are compiled again for each class of processor.
+    for (int bpp : new int[] {2, 4, 1, 2}) {
+      ImageProcessor expected = createProcessor(1, bpp);
+      expected.add(7);
+      expected.multiply(2);
+      expected.flipHorizontal();
+      assertPixels(replay(stack, createProcessor(1, bpp)), expected);
+    }
+  }
+
+  @Test
+  public void testNotRecording() {
+    RecordedImageProcessor recorded =
+      new RecordedImageProcessor(createProcessor(0, 1));
+    recorded.setDoRecording(false);
+    recorded.invert();
+    assertTrue(recorded.getMethodStack().isEmpty());
+  }
+
+  @Test
+  public void testFailedCall() {
+    RecordedImageProcessor recorded =
+      new RecordedImageProcessor(createProcessor(0, 1));
+    recorded.snapshot();
+    try {
+      recorded.reset(new ByteProcessor(WIDTH + 1, HEIGHT));
+      fail("Expected the mask to be rejected");
+    }
+    catch (IllegalArgumentException exc) { }
+    recorded.add(5);
+    final List<RecordedImageProcessor.MethodEntry> stack =
+      recorded.getMethodStack();
+
+    // the failing call is skipped, and the calls after it still replayed
+    for (int i=0; i<2; i++) {
+      ImageProcessor expected = createProcessor(1, 1);
+      expected.add(5);
+      assertPixels(replay(stack, createProcessor(1, 1)), expected);
+    }
+  }
+
+  // -- Helper methods --
+
+  private void edit(ImageProcessor ip, int[] lut) {
+    ip.add(10);
+    ip.multiply(1.5);
+    ip.applyTable(lut);
+    ip.setRoi(2, 1, 4, 3);
+    ip.setColor(200);
+    ip.fill();
+    ip.resetRoi();
+    ip.flipHorizontal();
+  }
+
+  private ImageProcessor replay(List<RecordedImageProcessor.MethodEntry> stack,
+    ImageProcessor ip)
+  {
+    new RecordedImageProcessor(ip).applyMethodStack(stack);
+    return ip;
+  }
+
+  /** Creates a processor whose pixel values depend on the given seed. */
+  private ImageProcessor createProcessor(int seed, int bpp) {
+    final ImageProcessor ip = bpp == 1 ? new ByteProcessor(WIDTH, HEIGHT) :
+      bpp == 2 ? new ShortProcessor(WIDTH, HEIGHT) :
+      new FloatProcessor(WIDTH, HEIGHT);
+    for (int y=0; y<HEIGHT; y++) {
+      for (int x=0; x<WIDTH; x++) {
+        ip.putPixelValue(x, y, (seed * 17 + y * WIDTH + x) % 101);
+      }
+    }
+    return ip;
+  }
+
+  private void assertPixels(ImageProcessor actual, ImageProcessor expected) {
+    for (int y=0; y<HEIGHT; y++) {
+      for (int x=0; x<WIDTH; x++) {
+        assertEquals(actual.getPixelValue(x, y), expected.getPixelValue(x, y),
+          "(" + x + ", " + y + ")");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+
+import loci.common.services.DependencyException;
+import loci.common.services.ServiceException;
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.meta.IMetadata;
+import loci.formats.services.OMEXMLService;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link SliceLabelTemplate} builds the same slice labels as
+ * substituting each placeholder of the pattern in turn.
+ */
+public class SliceLabelTemplateTest {
+
+  // -- Constants --
+
+  private static final String MULTI_ID =
+    "test&sizeZ=3&sizeC=2&sizeT=4&series=2.fake";
+
+  // -- Fields --
+
+  private IFormatReader r;
+  private IMetadata meta;
+
+  // -- Setup methods --
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    if (r != null) r.close();
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testDefaultPattern() throws Exception {
+    open(MULTI_ID);
+    final SliceLabelTemplate template =
+      new SliceLabelTemplate("%c%z%t- %n", r, 1);
+    final String name = meta.getImageName(1);
+    // XYZCT: plane 16 is at Z=1, C=1, T=2
+    assertEquals(template.getLabel(16), "c:2/2 z:2/3 t:3/4 - " + name);
+    assertEquals(template.getLabel(0), "c:1/2 z:1/3 t:1/4 - " + name);
+  }
+
+  @Test
+  public void testAllPlanes() throws Exception {
+    open(MULTI_ID);
+    final String pattern = FormatTools.SERIES_NUM + ":" +
+      FormatTools.CHANNEL_NUM + FormatTools.Z_NUM + FormatTools.T_NUM;
+    final SliceLabelTemplate template = new SliceLabelTemplate(pattern, r, 1);
+    for (int no=0; no<r.getImageCount(); no++) {
+      final int[] zct = r.getZCTCoords(no);
+      assertEquals(template.getLabel(no), "1:c:" + (zct[1] + 1) + "/2 z:" +
+        (zct[0] + 1) + "/3 t:" + (zct[2] + 1) + "/4 ");
+    }
+  }
+
+  @Test
+  public void testChannelNames() throws Exception {
+    open(MULTI_ID);
+    final SliceLabelTemplate template =
+      new SliceLabelTemplate("<" + FormatTools.CHANNEL_NAME + ">", r, 0);
+    for (int c=0; c<2; c++) {
+      String name = c < meta.getChannelCount(0) ?
+        meta.getChannelName(0, c) : null;
+      if (name == null) name = String.valueOf(c);
+      assertEquals(template.getLabel(r.getIndex(0, c, 0)), "<" + name + ">");
+    }
+  }
+
+  @Test
+  public void testSingletonDimensions() throws Exception {
+    open("test&sizeZ=1&sizeC=1&sizeT=5.fake");
+    final SliceLabelTemplate template = new SliceLabelTemplate(
+      FormatTools.CHANNEL_NUM + FormatTools.CHANNEL_NAME +
+      FormatTools.Z_NUM + FormatTools.T_NUM + "|", r, 0);
+    assertEquals(template.getLabel(2), "t:3/5 |");
+  }
+
+  @Test
+  public void testLiterals() throws Exception {
+    open(MULTI_ID);
+    final SliceLabelTemplate template = new SliceLabelTemplate(
+      "$1 \\" + FormatTools.SERIES_NUM + "%" + FormatTools.SERIES_NUM + "$",
+      r, 1);
+    assertEquals(template.getLabel(0), "$1 \\1%1$");
+  }
+
+  @Test
+  public void testNoPlaceholders() throws Exception {
+    open(MULTI_ID);
+    assertEquals(new SliceLabelTemplate("", r, 0).getLabel(5), "");
+    assertEquals(new SliceLabelTemplate("plane", r, 0).getLabel(5), "plane");
+  }
+
+  // -- Helper methods --
+
+  private void open(String id) throws DependencyException, FormatException,
+    IOException, ServiceException
+  {
+    final ServiceFactory factory = new ServiceFactory();
+    final OMEXMLService service = factory.getInstance(OMEXMLService.class);
+    meta = service.createOMEXMLMetadata();
+    r = new ImageReader();
+    r.setMetadataStore(meta);
+    r.setId(id);
+  }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.plugins.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import loci.formats.FormatException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link StatisticsCache} persists channel minima and maxima
+ * per dataset, and estimates them from samples within the exact range.
+ */
+public class StatisticsCacheTest {
+
+  // -- Fields --
+
+  private File dir;
+  private File data;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = File.createTempFile("bio-formats-stats", "");
+    dir.delete();
+    dir.mkdir();
+    data = new File(dir, "data.raw");
+    write(data, 16);
+    Prefs.set(LociPrefs.PREF_STATS_CACHE, true);
+    Prefs.set(LociPrefs.PREF_STATS_CACHE_DIR,
+      new File(dir, "cache").getAbsolutePath());
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Prefs.set(LociPrefs.PREF_STATS_CACHE, false);
+    Prefs.set(LociPrefs.PREF_STATS_CACHE_DIR, "");
+    delete(dir);
+  }
+
+  // -- Data providers --
+
+  @DataProvider(name = "pixelTypes")
+  public Object[][] pixelTypes() {
+    return new Object[][] {{"uint8"}, {"int8"}, {"uint16"}, {"int16"}};
+  }
+
+  // -- Tests --
+
+  @Test
+  public void testSaveLoad() {
+    final String id = data.getAbsolutePath();
+    StatisticsCache.save(id, 0, new double[] {1, -2}, new double[] {3, 4.5});
+    StatisticsCache.save(id, 1, new double[] {5}, new double[] {6});
+    double[][] stats = StatisticsCache.load(id, 0, 2);
+    assertNotNull(stats);
+    assertEquals(stats[0], new double[] {1, -2});
+    assertEquals(stats[1], new double[] {3, 4.5});
+    stats = StatisticsCache.load(id, 1, 1);
+    assertNotNull(stats);
+    assertEquals(stats[0], new double[] {5});
+    assertEquals(stats[1], new double[] {6});
+
+    // other series and channel counts are not mixed up
+    assertNull(StatisticsCache.load(id, 2, 2));
+    assertNull(StatisticsCache.load(id, 0, 3));
+  }
+
+  @Test
+  public void testChangedFile() throws IOException {
+    final String id = data.getAbsolutePath();
+    StatisticsCache.save(id, 0, new double[] {1}, new double[] {2});
+    write(data, 32);
+    assertNull(StatisticsCache.load(id, 0, 1));
+  }
+
+  @Test
+  public void testDisabled() {
+    final String id = data.getAbsolutePath();
+    Prefs.set(LociPrefs.PREF_STATS_CACHE, false);
+    StatisticsCache.save(id, 0, new double[] {1}, new double[] {2});
+    Prefs.set(LociPrefs.PREF_STATS_CACHE, true);
+    assertNull(StatisticsCache.load(id, 0, 1));
+    assertNull(StatisticsCache.load("test.fake", 0, 1));
+  }
+
+  @Test(dataProvider = "pixelTypes")
+  public void testSample(String pixelType) throws FormatException, IOException
+  {
+    ImageProcessorReader r = new ImageProcessorReader();
+    try {
+      r.setId("test&pixelType=" + pixelType +
+        "&sizeX=40&sizeY=30&sizeZ=3&sizeC=2&sizeT=2.fake");
+      final double[][] exact = getExact(r, pixelType.startsWith("int"));
+      assertEquals(StatisticsCache.sample(r, 1, 1), exact);
+
+      final double[][] sampled = StatisticsCache.sample(r, 2, 3);
+      for (int c=0; c<r.getSizeC(); c++) {
+        assertTrue(sampled[0][c] >= exact[0][c]);
+        assertTrue(sampled[1][c] <= exact[1][c]);
+        assertTrue(sampled[0][c] <= sampled[1][c]);
+      }
+    }
+    finally {
+      r.close();
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Gets the channel minima and maxima from every pixel of every plane,
+   * undoing the shift of signed values into the unsigned range.
+   */
+  private double[][] getExact(ImageProcessorReader r, boolean signed)
+    throws FormatException, IOException
+  {
+    final double[] min = new double[r.getSizeC()];
+    final double[] max = new double[r.getSizeC()];
+    for (int c=0; c<r.getSizeC(); c++) {
+      min[c] = Double.POSITIVE_INFINITY;
+      max[c] = Double.NEGATIVE_INFINITY;
+      for (int z=0; z<r.getSizeZ(); z++) {
+        for (int t=0; t<r.getSizeT(); t++) {
+          final ImageProcessor ip = r.openProcessors(r.getIndex(z, c, t))[0];
+          final double shift = !signed ? 0 :
+            ip.getBitDepth() == 8 ? 128 : 32768;
+          for (int y=0; y<ip.getHeight(); y++) {
+            for (int x=0; x<ip.getWidth(); x++) {
+              min[c] = Math.min(min[c], ip.getf(x, y) - shift);
+              max[c] = Math.max(max[c], ip.getf(x, y) - shift);
+            }
+          }
+        }
+      }
+    }
+    return new double[][] {min, max};
+  }
+
+  private static void write(File file, int length) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[length]);
+    }
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) delete(child);
+    }
+    file.delete();
+  }
+
+}